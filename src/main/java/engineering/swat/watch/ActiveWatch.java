@@ -45,4 +45,25 @@ public interface ActiveWatch extends Closeable {
      * @return the scope of this watch.
      */
     WatchScope getScope();
+
+    /**
+     * @return the number of directories in the scope of this watch that are
+     * registered with the OS (i.e., for which the OS reports events). For
+     * recursive watches on platforms without native support (e.g., Linux),
+     * each directory of the tree is registered separately. By default, a
+     * single registration is reported.
+     */
+    default int getRegisteredDirectoryCount() {
+        return 1;
+    }
+
+    /**
+     * @return the number of directories in the scope of this watch that are
+     * scanned periodically (instead of registered with the OS), because the
+     * OS refused to register them (e.g., because the limit of inotify watches
+     * on Linux is reached). By default, none.
+     */
+    default int getScannedDirectoryCount() {
+        return 0;
+    }
 }
@@ -27,12 +27,16 @@
 package engineering.swat.watch;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
 /**
  * Build thread pools that even when not properly shutdown, will still not prevent the termination of the JVM.
  */
@@ -58,7 +62,78 @@ public class DaemonThreadPool {
         return pool;
     }
 
-    private static ThreadFactory buildFactory(String name) {
+    /**
+     * Generate a fork-join pool with daemon threads, for recursive tasks that
+     * split themselves into subtasks (e.g., traversals of file trees).
+     * @param name name of the threads in the pool
+     * @param parallelism the number of threads that run tasks in parallel
+     * @return a fork-join pool with daemon threads
+     */
+    public static ForkJoinPool buildForkJoin(String name, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism should be higher than 0");
+        }
+        var id = new AtomicInteger(0);
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            var t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName(name + "-" + id.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+        Thread.UncaughtExceptionHandler handler = (t, e) -> {
+            var group = t.getThreadGroup();
+            if (group != null) {
+                group.uncaughtException(t, e);
+            }
+        };
+        return new ForkJoinPool(parallelism, factory, handler, false);
+    }
+
+    /**
+     * Generate an executor that starts a new virtual thread for every task,
+     * such that tasks that block (e.g., on I/O) don't hold up other tasks.
+     * Virtual threads never prevent the termination of the JVM.
+     * @param name name of the threads in the executor
+     * @return an executor with a virtual thread per task
+     * @throws UnsupportedOperationException when the JVM does not support virtual threads (i.e., before Java 21)
+     */
+    public static ExecutorService buildVirtualPerTask(String name) {
+        var factory = buildVirtualFactory(name);
+        if (factory == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+        try {
+            // Java 21+: Executors.newThreadPerTaskExecutor(factory)
+            var executor = (ExecutorService) Executors.class
+                .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, factory);
+            if (executor != null) {
+                return executor;
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", e);
+        }
+        throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+    }
+
+    /**
+     * @return a factory of virtual threads, or {@code null} when the JVM does
+     * not support virtual threads. Since this library targets Java 11, the
+     * Java 21 API is accessed reflectively.
+     */
+    static @Nullable ThreadFactory buildVirtualFactory(String name) {
+        try {
+            // Java 21+: Thread.ofVirtual().name(name + "-", 0).factory()
+            var builderClass = Class.forName("java.lang.Thread$Builder");
+            var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    static ThreadFactory buildFactory(String name) {
         return new ThreadFactory() {
             private final AtomicInteger id = new AtomicInteger(0);
             private final ThreadGroup group = new ThreadGroup(name);
@@ -0,0 +1,84 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch;
+
+/**
+ * Snapshot of how long signalled directories waited for their turn in the
+ * poller threads of a {@link WatchEngine}, i.e., the time between the OS
+ * signalling new events for a directory (or the directory being put back in
+ * line after its budget ran out) and those events being dispatched. A
+ * growing maximum indicates that the poller threads can't keep up (see
+ * {@link WatchEngine.Builder#withShards(int)} and
+ * {@link WatchEngine.Builder#withPollerBudget(int)}).
+ */
+public final class PollerStatistics {
+    private final long turns;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    PollerStatistics(long turns, long totalNanos, long maxNanos) {
+        this.turns = turns;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * @return the number of turns that directories got in the poller threads
+     */
+    public long getTurns() {
+        return turns;
+    }
+
+    /**
+     * @return the total time (in nanoseconds) that directories waited for
+     * their turns
+     */
+    public long getTotalWaitNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the longest time (in nanoseconds) that a directory waited for a
+     * turn
+     */
+    public long getMaxWaitNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return the average time (in nanoseconds) that directories waited for
+     * a turn, or 0 when there weren't any turns yet
+     */
+    public long getMeanWaitNanos() {
+        return turns == 0 ? 0 : totalNanos / turns;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PollerStatistics[turns: %d, total wait: %d ns, max wait: %d ns]", turns, totalNanos, maxNanos);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Active watch whose events are queued, to be pulled by the caller (like with
+ * a {@link java.nio.file.WatchService}), as started with
+ * {@link Watch#startQueued()}. Events can be pulled concurrently by multiple
+ * threads.
+ */
+public interface QueuedActiveWatch extends ActiveWatch {
+
+    /**
+     * Retrieves and removes the next event, waiting if necessary up to the
+     * specified wait time.
+     * @param timeout how long to wait before giving up, in units of unit
+     * @param unit the unit of timeout
+     * @return the next event, or {@code null} if the timeout expired
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ClosedWatchServiceException if this watch is closed and all its
+     * events have been retrieved
+     */
+    @Nullable WatchEvent poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Retrieves and removes the next event, waiting if necessary.
+     * @return the next event
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ClosedWatchServiceException if this watch is closed and all its
+     * events have been retrieved
+     */
+    WatchEvent take() throws InterruptedException;
+
+    /**
+     * Removes at most the given number of available events, without waiting,
+     * and adds them to the given collection.
+     * @param target the collection to transfer events into
+     * @param max the maximum number of events to transfer
+     * @return the number of events transferred
+     */
+    int drainTo(Collection<? super WatchEvent> target, int max);
+}
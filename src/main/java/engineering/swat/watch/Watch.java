@@ -35,7 +35,15 @@ import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -43,13 +51,21 @@ import java.util.function.Predicate;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import engineering.swat.watch.impl.EventHandlingWatch;
+import engineering.swat.watch.impl.coalescing.CoalescingHandler;
+import engineering.swat.watch.impl.jdk.JDKBaseWatch;
 import engineering.swat.watch.impl.jdk.JDKDirectoryWatch;
 import engineering.swat.watch.impl.jdk.JDKFileTreeWatch;
 import engineering.swat.watch.impl.jdk.JDKFileWatch;
 import engineering.swat.watch.impl.overflows.IndexingRescanner;
 import engineering.swat.watch.impl.overflows.MemorylessRescanner;
+import engineering.swat.watch.impl.pull.EventQueue;
+import engineering.swat.watch.impl.pull.QueuedWatch;
+import engineering.swat.watch.impl.reactive.PublishedWatch;
+import engineering.swat.watch.impl.reactive.WatchPublisher;
+import engineering.swat.watch.impl.util.KeyedSerialExecutor;
 
 /**
  * <p>Watch a path for changes.</p>
@@ -62,19 +78,30 @@ public class Watch {
     private final Logger logger = LogManager.getLogger();
     private final Path path;
     private final WatchScope scope;
+    private final WatchEngine engine;
     private volatile Approximation approximateOnOverflow = Approximation.ALL;
+    private volatile @MonotonicNonNull Duration coalescingWindow = null;
+    private volatile boolean ordered = false;
+    private volatile int maxDepth = Integer.MAX_VALUE;
 
-    private static final Executor FALLBACK_EXECUTOR = DaemonThreadPool.buildConstrainedCached("JavaWatch-internal-handler",Runtime.getRuntime().availableProcessors());
     private volatile @MonotonicNonNull Executor executor = null;
 
-    private static final BiConsumer<EventHandlingWatch, WatchEvent> EMPTY_HANDLER = (w, e) -> {};
-    private volatile BiConsumer<EventHandlingWatch, WatchEvent> eventHandler = EMPTY_HANDLER;
+    private static final BiConsumer<EventHandlingWatch, List<WatchEvent>> EMPTY_HANDLER = (w, es) -> {};
+    private volatile BiConsumer<EventHandlingWatch, List<WatchEvent>> eventHandler = EMPTY_HANDLER;
+    private volatile @MonotonicNonNull WatchPublisher publisher = null;
+    private volatile @MonotonicNonNull EventQueue queue = null;
+    private static final int ORDERED_LANES = 4 * Runtime.getRuntime().availableProcessors();
     private static final Predicate<WatchEvent> TRUE_FILTER = e -> true;
     private volatile Predicate<WatchEvent> eventFilter = TRUE_FILTER;
+    private volatile WatchFilter watchFilter = WatchFilter.all();
+    // Additional handlers (see `addHandler`), and their filters
+    private final List<BiConsumer<EventHandlingWatch, List<WatchEvent>>> additionalHandlers = new ArrayList<>();
+    private final List<WatchFilter> additionalFilters = new ArrayList<>();
 
-    private Watch(Path path, WatchScope scope) {
+    private Watch(Path path, WatchScope scope, WatchEngine engine) {
         this.path = path;
         this.scope = scope;
+        this.engine = engine;
     }
 
     /**
@@ -85,10 +112,22 @@ public class Watch {
      * @return watch builder that can be further configured and then started
      */
     public static Watch build(Path path, WatchScope scope) {
+        return build(path, scope, WatchEngine.getDefault());
+    }
+
+    /**
+     * Watch a path for updates, optionally also get events for its children/descendants, using a specific engine
+     * @param path which absolute path to monitor, can be a file or a directory, but has to be absolute
+     * @param scope for directories you can also choose to monitor it's direct children or all it's descendants
+     * @param engine the engine that runs the watch (instead of the default engine)
+     * @throws IllegalArgumentException in case a path is not supported
+     * @return watch builder that can be further configured and then started
+     */
+    public static Watch build(Path path, WatchScope scope, WatchEngine engine) {
         if (!path.isAbsolute()) {
             throw new IllegalArgumentException("We can only watch absolute paths");
         }
-        return new Watch(path, scope);
+        return new Watch(path, scope, engine);
     }
 
     /**
@@ -102,7 +141,7 @@ public class Watch {
         if (this.eventHandler != EMPTY_HANDLER) {
             throw new IllegalArgumentException("on handler cannot be set more than once");
         }
-        this.eventHandler = (w, e) -> eventHandler.accept(e);
+        this.eventHandler = (w, es) -> forEach(es, eventHandler);
         return this;
     }
 
@@ -115,7 +154,7 @@ public class Watch {
         if (this.eventHandler != EMPTY_HANDLER) {
             throw new IllegalArgumentException("on handler cannot be set more than once");
         }
-        this.eventHandler = (w, ev) -> {
+        this.eventHandler = (w, es) -> forEach(es, ev -> {
             switch (ev.getKind()) {
                 case CREATED:
                     listener.onCreated(ev);
@@ -132,10 +171,184 @@ public class Watch {
                 default:
                     throw new IllegalArgumentException("Unexpected kind: " + ev.getKind());
             }
+        });
+        return this;
+    }
+
+    /**
+     * Alternative to {@link #on(Consumer)} that receives the events in batches
+     * instead of one by one. A batch contains the events that were collected
+     * together (e.g., all events of a directory since the previous poll), in
+     * the order in which they were reported, so handlers that do per-call work
+     * (e.g., taking a lock or flushing a buffer) can do it once per batch.
+     * Batches are never empty, and they are unmodifiable.
+     * @param batchHandler a callback that handles a batch of watch events
+     * @return {@code this} (to support method chaining)
+     */
+    public Watch onBatch(Consumer<List<WatchEvent>> batchHandler) {
+        if (this.eventHandler != EMPTY_HANDLER) {
+            throw new IllegalArgumentException("on handler cannot be set more than once");
+        }
+        this.eventHandler = (w, es) -> {
+            try {
+                batchHandler.accept(Collections.unmodifiableList(es));
+            } catch (Throwable t) {
+                logger.error("Ignoring downstream exception:", t);
+            }
         };
         return this;
     }
 
+    /**
+     * Alternative to {@link #on(Consumer)} that publishes the events to a
+     * reactive subscriber, with respect for its demand (as requested via
+     * {@link Flow.Subscription#request(long)}), using a buffer of
+     * {@value WatchPublisher#DEFAULT_MAX_BUFFERED} events (see
+     * {@link #toPublisher(int)}).
+     * @return the publisher of the events of the watch (once started)
+     */
+    public Flow.Publisher<WatchEvent> toPublisher() {
+        return toPublisher(WatchPublisher.DEFAULT_MAX_BUFFERED);
+    }
+
+    /**
+     * Alternative to {@link #on(Consumer)} that publishes the events to a
+     * reactive subscriber, with respect for its demand (as requested via
+     * {@link Flow.Subscription#request(long)}). Events that the subscriber
+     * hasn't requested yet are buffered, but instead of buffering forever,
+     * when the buffer is full, its events are collapsed into an
+     * {@link WatchEvent.Kind#OVERFLOW} event, which is passed to the
+     * subscriber (followed by the approximation as configured with
+     * {@link #onOverflow(Approximation)}) when it has demand again. Such an
+     * overflow is passed to the other handlers of the watch (see
+     * {@link #addHandler(Consumer, WatchFilter)}) as well.
+     *
+     * <p>The publisher is hot: events are published from the moment that the
+     * watch is started, and events that happen while there is no subscriber
+     * are dropped. There is at most one subscriber at a time. When the watch
+     * is closed, the subscriber is completed (after the events that are still
+     * buffered for it), as are later subscribers.</p>
+     * @param maxBuffered the maximum number of buffered events
+     * @return the publisher of the events of the watch (once started)
+     */
+    public Flow.Publisher<WatchEvent> toPublisher(int maxBuffered) {
+        if (this.eventHandler != EMPTY_HANDLER) {
+            throw new IllegalArgumentException("on handler cannot be set more than once");
+        }
+        var result = new WatchPublisher(maxBuffered);
+        this.publisher = result;
+        this.eventHandler = result;
+        return result;
+    }
+
+    /**
+     * Alternative to {@link #on(Consumer)} that queues the events, up to
+     * {@value EventQueue#DEFAULT_MAX_QUEUED} events (see {@link #queued(int)}).
+     * @return {@code this} (to support method chaining)
+     */
+    public Watch queued() {
+        return queued(EventQueue.DEFAULT_MAX_QUEUED);
+    }
+
+    /**
+     * Alternative to {@link #on(Consumer)} that queues the events, to be
+     * pulled by the caller with {@link QueuedActiveWatch#poll},
+     * {@link QueuedActiveWatch#take}, and {@link QueuedActiveWatch#drainTo}
+     * (like a {@link java.nio.file.WatchService}), on the watch returned by
+     * {@link #startQueued()}.
+     * Events are queued by the threads that observe them, without handing them
+     * off to the executor first (unless {@link Approximation#DIFF} is used, or
+     * the recursive watch is simulated). When the queue is full, its events are
+     * collapsed into an {@link WatchEvent.Kind#OVERFLOW} event, which is
+     * queued (followed by the approximation as configured with
+     * {@link #onOverflow(Approximation)}) when the caller has emptied the
+     * queue. Such an overflow is passed to the other handlers of the watch (see
+     * {@link #addHandler(Consumer, WatchFilter)}) as well.
+     * @param maxQueued the maximum number of queued events
+     * @return {@code this} (to support method chaining)
+     */
+    public Watch queued(int maxQueued) {
+        if (this.eventHandler != EMPTY_HANDLER) {
+            throw new IllegalArgumentException("on handler cannot be set more than once");
+        }
+        var result = new EventQueue(maxQueued);
+        this.queue = result;
+        this.eventHandler = result;
+        return this;
+    }
+
+    /**
+     * Adds a handler in addition to the {@link #on(Consumer)} handler (if
+     * any), with its own filter, that runs on the same executor as the
+     * {@link #on(Consumer)} handler. Every event is observed once by the watch
+     * and then passed to all handlers (instead of each handler needing its own
+     * watch on the same path). Coalescing (see {@link #withCoalescing}) applies
+     * only to the {@link #on(Consumer)} handler.
+     * @param handler a callback that handles the accepted watch events, one by one
+     * @param filter the filter that determines which events are passed to `handler`
+     * @return {@code this} (to support method chaining)
+     */
+    public Watch addHandler(Consumer<WatchEvent> handler, WatchFilter filter) {
+        additionalFilters.add(filter);
+        additionalHandlers.add((w, events) -> {
+            var accepted = accept(filter, events, false);
+            if (!accepted.isEmpty()) {
+                forEach(accepted, handler);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Variant of {@link #addHandler(Consumer, WatchFilter)} that runs the
+     * handler on its own executor: each batch of accepted events is passed to
+     * `executor` in one task, so a slow handler doesn't hold up the others.
+     * @param handler a callback that handles the accepted watch events, one by one
+     * @param filter the filter that determines which events are passed to `handler`
+     * @param executor the executor in which `handler` is scheduled
+     * @return {@code this} (to support method chaining)
+     */
+    public Watch addHandler(Consumer<WatchEvent> handler, WatchFilter filter, Executor executor) {
+        additionalFilters.add(filter);
+        additionalHandlers.add((w, events) -> {
+            // The events are handled later, so they need to be retained
+            var accepted = accept(filter, events, true);
+            if (!accepted.isEmpty()) {
+                executor.execute(() -> forEach(accepted, handler));
+            }
+        });
+        return this;
+    }
+
+    /**
+     * @return The events in `events` that are accepted by `filter` (copied,
+     * if `retain` is {@code true}, or possibly `events` itself otherwise)
+     */
+    private static List<WatchEvent> accept(WatchFilter filter, List<WatchEvent> events, boolean retain) {
+        if (filter == WatchFilter.all() && !retain) {
+            return events;
+        }
+        var accepted = new ArrayList<WatchEvent>(events.size());
+        for (var e : events) {
+            if (filter.test(e)) {
+                accepted.add(retain ? e.copy() : e);
+            }
+        }
+        return accepted;
+    }
+
+    private void forEach(List<WatchEvent> events, Consumer<WatchEvent> handler) {
+        // An exception for one event shouldn't prevent the handling of the
+        // other events in the same batch
+        for (var e : events) {
+            try {
+                handler.accept(e);
+            } catch (Throwable t) {
+                logger.error("Ignoring downstream exception:", t);
+            }
+        }
+    }
+
     /**
      * Configures the event filter to determine which events should be passed to
      * the event handler. By default (without calling this method), all events
@@ -152,6 +365,28 @@ public class Watch {
         return this;
     }
 
+    /**
+     * Optionally configure which events should be passed to the
+     * {@link #on(Consumer)} handler, declaratively (see also
+     * {@link #addHandler(Consumer, WatchFilter)} for handlers with other
+     * filters). Unlike filtering in the
+     * handler, the filter is pushed down as far as possible: the OS is asked
+     * to report only the kinds of events that are accepted, and events for
+     * file names that are not accepted are dropped before event objects are
+     * allocated. Overflows are still used to approximate missed events (see
+     * {@link #onOverflow(Approximation)}), but those events are filtered as
+     * well. This method must be called at most once.
+     * @param filter the filter that determines which events are passed
+     * @return {@code this} (to support method chaining)
+     */
+    public Watch filter(WatchFilter filter) {
+        if (this.watchFilter != WatchFilter.all()) {
+            throw new IllegalArgumentException("filter cannot be set more than once");
+        }
+        this.watchFilter = filter;
+        return this;
+    }
+
     /**
      * Optionally configure the executor in which the {@link #on(Consumer)} callbacks are scheduled.
      * Make sure to consider the termination of the threadpool, it should be after the close of the active watch.
@@ -166,6 +401,48 @@ public class Watch {
         return this;
     }
 
+    /**
+     * Optionally guarantee that events are passed to the {@link #on(Consumer)}
+     * handler in order per directory: the events for files in the same
+     * directory are handled serially, in the order in which they happened.
+     * The events for files in distinct directories are still handled in
+     * parallel when the recursive watch is simulated with one watch per
+     * directory; single-directory watches and native recursive watches use
+     * one lane keyed by the watched path, so all their events are handled
+     * serially. Without this option, events may be handled in parallel (and
+     * hence out of order), unless a single-threaded executor is configured
+     * with {@link #withExecutor(Executor)}.
+     * @return {@code this} (to support method chaining)
+     */
+    public Watch withOrderedDelivery() {
+        this.ordered = true;
+        return this;
+    }
+
+    /**
+     * Optionally limit a recursive watch to the paths up to the given number
+     * of levels below the watched directory (e.g., {@code 2} for its children
+     * and grandchildren). Events for deeper paths are not reported to any
+     * handler. Moreover, deeper directories are not registered with the OS
+     * (on platforms where recursive watches are simulated), and they are not
+     * rescanned when an overflow happens.
+     * @param depth the maximum depth (at least 1)
+     * @return {@code this} (to support method chaining)
+     * @throws IllegalArgumentException if the scope of this watch isn't
+     * {@link WatchScope#PATH_AND_ALL_DESCENDANTS}, or if the depth is not
+     * positive
+     */
+    public Watch withMaxDepth(int depth) {
+        if (scope != WatchScope.PATH_AND_ALL_DESCENDANTS) {
+            throw new IllegalArgumentException("Only recursive watches can be limited in depth");
+        }
+        if (depth < 1) {
+            throw new IllegalArgumentException("The maximum depth should be at least 1");
+        }
+        this.maxDepth = depth;
+        return this;
+    }
+
     /**
      * Optionally configure which regular files/directories in the scope of the
      * watch an <i>approximation</i> of synthetic events (of kinds
@@ -182,8 +459,33 @@ public class Watch {
         return this;
     }
 
+    /**
+     * Optionally coalesce the events for the same path, within a time window,
+     * into their net effect before they are passed to the
+     * {@link #on(Consumer)} handler. For instance, a file that is created and
+     * then modified (e.g., by an editor) within the window results in one
+     * {@link WatchEvent.Kind#CREATED} event, while a file that is created and
+     * then deleted within the window results in no event at all. Events are
+     * delayed by at most (roughly) the window; overflows are never delayed.
+     * Note that events that are pending when the watch is closed, are still
+     * passed to the handler when their window ends.
+     * @param window the time window in which events for the same path are coalesced
+     * @return {@code this} (to support method chaining)
+     */
+    public Watch withCoalescing(Duration window) {
+        if (window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("The coalescing window should be positive");
+        }
+        this.coalescingWindow = window;
+        return this;
+    }
+
+    private boolean hasHandler() {
+        return this.eventHandler != EMPTY_HANDLER || !additionalHandlers.isEmpty();
+    }
+
     private void validateOptions() throws IOException {
-        if (this.eventHandler == EMPTY_HANDLER) {
+        if (!hasHandler()) {
             throw new IllegalStateException("There is no `on` handler defined");
         }
         if (!Files.exists(path)) {
@@ -213,54 +515,228 @@ public class Watch {
      * @throws IllegalStateException the watchers is not configured correctly (for example, missing {@link #on(Consumer)}, or a watcher is started twice)
      */
     public ActiveWatch start() throws IOException {
+        var watch = startBase();
+        var queue = this.queue;
+        if (queue != null) {
+            return new QueuedWatch(watch, queue);
+        }
+        var publisher = this.publisher;
+        return publisher == null ? watch : new PublishedWatch(watch, publisher);
+    }
+
+    /**
+     * Start watch the path for events, which are queued to be pulled from the
+     * returned watch (see {@link #queued(int)}).
+     * @return a subscription for the watch, from which its events can be
+     * pulled; when closed, new events will stop being queued.
+     * @throws IOException in case the starting of the watcher caused an underlying IO exception or we detect it is an invalid watch
+     * @throws IllegalStateException the watchers is not configured correctly (for example, missing {@link #queued()}, or a watcher is started twice)
+     */
+    public QueuedActiveWatch startQueued() throws IOException {
+        var queue = this.queue;
+        if (queue == null) {
+            throw new IllegalStateException("The events are not queued; use `queued` instead of `on`");
+        }
+        return new QueuedWatch(startBase(), queue);
+    }
+
+    private JDKBaseWatch startBase() throws IOException {
         validateOptions();
         var executor = this.executor;
         if (executor == null) {
-            executor = FALLBACK_EXECUTOR;
+            executor = engine.getExecutor();
+        }
+        if (ordered) {
+            executor = new KeyedSerialExecutor(executor, ORDERED_LANES);
         }
+        var poller = engine.getPoller();
 
-        var h = applyApproximateOnOverflow(executor);
+        var pushdown = pushdownFilter();
+        if (maxDepth < pushdown.getMaxDepth()) {
+            pushdown = pushdown.withMaxDepth(maxDepth);
+        }
+        // Queued events are handled on the threads that observe them, as
+        // queueing is cheap (but updating the index of `DIFF` is not)
+        var handlerExecutor = executor;
+        BiConsumer<EventHandlingWatch, List<WatchEvent>> h;
+        if (queue != null && approximateOnOverflow != Approximation.DIFF) {
+            handlerExecutor = Runnable::run;
+            h = applyQueueing(executor, pushdown);
+        } else {
+            h = applyApproximateOnOverflow(executor, pushdown);
+        }
 
         switch (scope) {
             case PATH_AND_CHILDREN: {
-                var result = new JDKDirectoryWatch(path, executor, h, eventFilter);
-                result.open();
-                return result;
+                var result = new JDKDirectoryWatch(path, poller, handlerExecutor, h, eventFilter, false, pushdown);
+                return open(result, executor);
             }
             case PATH_AND_ALL_DESCENDANTS: {
                 try {
-                    var result = new JDKDirectoryWatch(path, executor, h, eventFilter, true);
-                    result.open();
-                    return result;
+                    var result = new JDKDirectoryWatch(path, poller, handlerExecutor, h, eventFilter, true, pushdown);
+                    return open(result, executor);
                 } catch (Throwable ex) {
                     // no native support, use the simulation
                     logger.debug("Not possible to register the native watcher, using fallback for {}", path);
                     logger.trace(ex);
-                    var result = new JDKFileTreeWatch(path, executor, h, eventFilter);
-                    result.open();
-                    return result;
+                    var result = new JDKFileTreeWatch(path, poller, executor, h, eventFilter, pushdown, engine.getTreeStarter(), engine.getScanInterval());
+                    return open(result, executor);
                 }
             }
             case PATH_ONLY: {
-                var result = new JDKFileWatch(path, executor, h, eventFilter);
-                result.open();
-                return result;
+                var result = new JDKFileWatch(path, poller, handlerExecutor, h, eventFilter, pushdown);
+                return open(result, executor);
             }
             default:
                 throw new IllegalStateException("Not supported yet");
         }
     }
 
-    private BiConsumer<EventHandlingWatch, WatchEvent> applyApproximateOnOverflow(Executor executor) {
+    private JDKBaseWatch open(JDKBaseWatch watch, Executor executor) throws IOException {
+        // The publisher or queue (if any) needs to know the watch before any event
+        var publisher = this.publisher;
+        if (publisher != null) {
+            publisher.bind(watch, executor);
+        }
+        var queue = this.queue;
+        if (queue != null) {
+            queue.bind(watch, executor);
+        }
+        watch.open();
+        return watch;
+    }
+
+    /**
+     * Start watch the path for events, without blocking the caller while the
+     * watch is being set up (i.e., while registering the path(s) with the OS,
+     * and, for {@link Approximation#DIFF}, while indexing the initial state).
+     * This allows many watches to be started concurrently.
+     * @return a future that completes with the subscription for the watch
+     * (see {@link #start()}) once events are being registered, or that
+     * completes exceptionally with the {@link IOException} that caused the
+     * watch to fail to start
+     * @throws IllegalStateException the watchers is not configured correctly (for example, missing {@link #on(Consumer)})
+     */
+    public CompletableFuture<ActiveWatch> startAsync() {
+        if (!hasHandler()) {
+            throw new IllegalStateException("There is no `on` handler defined");
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return start();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, engine.getStarter());
+    }
+
+    private BiConsumer<EventHandlingWatch, List<WatchEvent>> applyWatchFilter() {
+        // Only the handler is filtered: the rescanners need all events
+        var filter = watchFilter;
+        var handler = eventHandler;
+        if (filter == WatchFilter.all()) {
+            return handler;
+        }
+        return (w, events) -> {
+            var accepted = new ArrayList<WatchEvent>(events.size());
+            for (var e : events) {
+                if (filter.test(e)) {
+                    accepted.add(e);
+                }
+            }
+            if (!accepted.isEmpty()) {
+                handler.accept(w, accepted);
+            }
+        };
+    }
+
+    private BiConsumer<EventHandlingWatch, List<WatchEvent>> applyCoalescing(Executor executor) {
+        // Only the handler is coalesced: the rescanners need all events
+        var handler = applyWatchFilter();
+        var window = coalescingWindow;
+        if (window == null) {
+            return handler;
+        }
+        return new CoalescingHandler(handler, window, CoalescingHandler.DEFAULT_MAX_PENDING,
+            KeyedSerialExecutor.laneFor(executor, path));
+    }
+
+    /**
+     * @return The filter that can be pushed down to the OS, the translation of
+     * events, and the rescanners, such that no handler misses events: the
+     * filter of the only handler, or, with multiple handlers, the union of
+     * their kinds
+     */
+    private WatchFilter pushdownFilter() {
+        var filters = new ArrayList<WatchFilter>(additionalFilters.size() + 1);
+        if (eventHandler != EMPTY_HANDLER) {
+            filters.add(watchFilter);
+        }
+        filters.addAll(additionalFilters);
+        if (filters.size() == 1) {
+            return filters.get(0);
+        }
+        var kinds = EnumSet.noneOf(WatchEvent.Kind.class);
+        for (var f : filters) {
+            if (f == WatchFilter.all()) {
+                return f;
+            }
+            kinds.addAll(f.getKinds());
+        }
+        return WatchFilter.all().withKinds(kinds.toArray(new WatchEvent.Kind[0]));
+    }
+
+    private BiConsumer<EventHandlingWatch, List<WatchEvent>> applyApproximateOnOverflow(Executor executor, WatchFilter pushdown) {
+        var handler = applyCoalescing(executor);
+        var others = otherHandlers(executor, pushdown);
+        return others == null ? handler : handler.andThen(others);
+    }
+
+    /**
+     * Variant of {@link #applyApproximateOnOverflow} for handlers that run on
+     * the threads that observe the events: only the queue is applied directly,
+     * while the other handlers (and the rescanner) are still scheduled on
+     * `executor`, so they can't hold up the poller
+     */
+    private BiConsumer<EventHandlingWatch, List<WatchEvent>> applyQueueing(Executor executor, WatchFilter pushdown) {
+        var handler = applyCoalescing(executor);
+        var others = otherHandlers(executor, pushdown);
+        if (others == null) {
+            return handler;
+        }
+        var lane = KeyedSerialExecutor.laneFor(executor, path);
+        return handler.andThen((w, events) -> {
+            // Events are retained by the task, so reusable events need to be copied
+            var copies = new ArrayList<WatchEvent>(events.size());
+            for (var e : events) {
+                copies.add(e.copy());
+            }
+            lane.execute(() -> others.accept(w, copies));
+        });
+    }
+
+    /**
+     * @return The handlers that follow the {@link #on(Consumer)} handler (or
+     * queue, or publisher): the additional handlers and the rescanner, if any
+     */
+    private @Nullable BiConsumer<EventHandlingWatch, List<WatchEvent>> otherHandlers(Executor executor, WatchFilter pushdown) {
+        @Nullable BiConsumer<EventHandlingWatch, List<WatchEvent>> handler = null;
+        for (var additional : additionalHandlers) {
+            handler = handler == null ? additional : handler.andThen(additional);
+        }
+        BiConsumer<EventHandlingWatch, List<WatchEvent>> rescanner;
         switch (approximateOnOverflow) {
             case NONE:
-                return eventHandler;
+                return handler;
             case ALL:
-                return eventHandler.andThen(new MemorylessRescanner(executor));
+                rescanner = new MemorylessRescanner(executor, path, pushdown);
+                break;
             case DIFF:
-                return eventHandler.andThen(new IndexingRescanner(executor, path, scope));
+                rescanner = new IndexingRescanner(KeyedSerialExecutor.laneFor(executor, path), path, scope, pushdown);
+                break;
             default:
                 throw new UnsupportedOperationException("No event handler has been defined yet for this overflow policy");
         }
+        return handler == null ? rescanner : handler.andThen(rescanner);
     }
 }
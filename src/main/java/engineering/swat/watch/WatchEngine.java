@@ -0,0 +1,401 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import engineering.swat.watch.impl.jdk.JDKFileTreeWatch;
+import engineering.swat.watch.impl.jdk.JDKPoller;
+
+/**
+ * <p>The engine that runs watches: it owns the threads that poll the OS for
+ * events (and the underlying OS resources), the thread pools in which events
+ * are handled, and their configuration.</p>
+ *
+ * <p>By default, all watches run on a shared default engine, which is started
+ * when the first watch is built (see {@link Watch#build(Path, WatchScope)}).
+ * To isolate groups of watches from each other (e.g., per tenant), or to be
+ * able to release all threads and OS resources of a group of watches, start a
+ * separate engine, and pass it to
+ * {@link Watch#build(Path, WatchScope, WatchEngine)}.</p>
+ */
+public class WatchEngine implements Closeable {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final JDKPoller poller;
+    private final Executor executor;
+    private final @Nullable ExecutorService ownedExecutor;
+    private final ExecutorService starter;
+    private final ForkJoinPool treeStarter;
+    private final Duration scanInterval;
+    private final boolean isDefault;
+
+    private WatchEngine(JDKPoller poller, Executor executor, @Nullable ExecutorService ownedExecutor, ExecutorService starter, ForkJoinPool treeStarter, Duration scanInterval, boolean isDefault) {
+        this.poller = poller;
+        this.executor = executor;
+        this.ownedExecutor = ownedExecutor;
+        this.starter = starter;
+        this.treeStarter = treeStarter;
+        this.scanInterval = scanInterval;
+        this.isDefault = isDefault;
+    }
+
+    /**
+     * Configure a new engine. The defaults of the configuration are the same
+     * as for the default engine (see {@link #getDefault()}).
+     * @return engine builder that can be further configured and then started
+     */
+    public static Builder build() {
+        return new Builder();
+    }
+
+    /**
+     * Get the default engine, which is shared by all watches that are built
+     * without an explicit engine. Its configuration can be influenced using
+     * system properties {@code engineering.swat.java-watch.poller.shards},
+     * {@code engineering.swat.java-watch.poller.budget},
+     * {@code engineering.swat.java-watch.max-pending-events},
+     * {@code engineering.swat.java-watch.flyweight-events}, and
+     * {@code engineering.swat.java-watch.virtual-threads} (see
+     * {@link Builder}).
+     * The default engine cannot be closed.
+     * @return the default engine
+     */
+    public static WatchEngine getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private static class DefaultHolder {
+        private static final WatchEngine INSTANCE = startDefault();
+
+        private static WatchEngine startDefault() {
+            try {
+                return new Builder().start(true);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not start the default watch engine", e);
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of how long directories with new events waited for
+     * their turn in the poller threads of this engine, since it was started
+     */
+    public PollerStatistics getPollerStatistics() {
+        var statistics = poller.getKeyWaitStatistics();
+        return new PollerStatistics(statistics.getTurns(), statistics.getTotalNanos(), statistics.getMaxNanos());
+    }
+
+    JDKPoller getPoller() {
+        return poller;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    Executor getStarter() {
+        return starter;
+    }
+
+    ForkJoinPool getTreeStarter() {
+        return treeStarter;
+    }
+
+    Duration getScanInterval() {
+        return scanInterval;
+    }
+
+    /**
+     * Stop the engine: all watches that run on this engine stop receiving
+     * events, and all threads and OS resources owned by the engine are
+     * released. An executor configured using
+     * {@link Builder#withExecutor(Executor)} is not shut down.
+     * @throws UnsupportedOperationException when trying to close the default engine
+     */
+    @Override
+    public void close() throws IOException {
+        if (isDefault) {
+            throw new UnsupportedOperationException("The default engine cannot be closed");
+        }
+        logger.debug("Closing watch engine");
+        try {
+            poller.close();
+        } finally {
+            starter.shutdown();
+            treeStarter.shutdown();
+            if (ownedExecutor != null) {
+                ownedExecutor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Configuration of a watch engine
+     */
+    public static class Builder {
+        private int shards = positiveIntProperty("engineering.swat.java-watch.poller.shards", 1);
+        private int pollerBudget = positiveIntProperty("engineering.swat.java-watch.poller.budget", 128);
+        private int maxPendingEvents = positiveIntProperty("engineering.swat.java-watch.max-pending-events", 64 * 1024);
+        private int registerThreads = Runtime.getRuntime().availableProcessors();
+        private int treeStartParallelism = positiveIntProperty("engineering.swat.java-watch.tree-start-parallelism", Runtime.getRuntime().availableProcessors());
+        private Duration scanInterval = Duration.ofMillis(positiveIntProperty("engineering.swat.java-watch.scan-interval-ms",
+            (int) JDKFileTreeWatch.DEFAULT_SCAN_INTERVAL.toMillis()));
+        private int handlerThreads = Runtime.getRuntime().availableProcessors();
+        private @Nullable Executor executor = null;
+        private boolean virtualThreads = Boolean.getBoolean("engineering.swat.java-watch.virtual-threads");
+        private boolean flyweightEvents = Boolean.getBoolean("engineering.swat.java-watch.flyweight-events");
+
+        private Builder() {}
+
+        private static int positiveIntProperty(String key, int defaultValue) {
+            var val = System.getProperty(key);
+            if (val != null) {
+                try {
+                    var i = Integer.parseInt(val);
+                    if (i > 0) {
+                        return i;
+                    }
+                } catch (NumberFormatException ignored) {
+                    // Report below
+                }
+                logger.warn("Unexpected value \"{}\" for system property \"{}\". Using value \"{}\" instead.", val, key, defaultValue);
+            }
+            return defaultValue;
+        }
+
+        private static boolean supportsVirtualThreads() {
+            if (DaemonThreadPool.buildVirtualFactory("JavaWatch-probe") == null) {
+                logger.warn("Virtual threads are not supported by this JVM, using platform threads instead");
+                return false;
+            }
+            return true;
+        }
+
+        private static int requirePositive(int i, String name) {
+            if (i <= 0) {
+                throw new IllegalArgumentException(name + " should be higher than 0");
+            }
+            return i;
+        }
+
+        /**
+         * Optionally configure the number of poller threads, each of which
+         * polls its own OS queue of events (default: system property
+         * {@code engineering.swat.java-watch.poller.shards}, or 1). The paths
+         * in the same subtree of a recursive watch share a poller thread.
+         * @param shards the number of poller threads
+         * @return {@code this} (to support method chaining)
+         */
+        public Builder withShards(int shards) {
+            this.shards = requirePositive(shards, "shards");
+            return this;
+        }
+
+        /**
+         * Optionally configure the maximum number of events that a poller
+         * thread dispatches for one directory before giving the next
+         * directory a turn (default: system property
+         * {@code engineering.swat.java-watch.poller.budget}, or 128).
+         * @param budget the maximum number of events per turn
+         * @return {@code this} (to support method chaining)
+         */
+        public Builder withPollerBudget(int budget) {
+            this.pollerBudget = requirePositive(budget, "budget");
+            return this;
+        }
+
+        /**
+         * Optionally configure the maximum number of events of a watched
+         * directory that may be waiting to be handled (default: system
+         * property {@code engineering.swat.java-watch.max-pending-events}, or
+         * 65536). When event handlers fall behind, and this number is
+         * exceeded, the pending events of the directory are dropped and
+         * replaced by a single {@link WatchEvent.Kind#OVERFLOW} event, so the
+         * approximation configured with {@link Watch#onOverflow(Approximation)}
+         * catches up with the changes later. This bounds the memory used by
+         * pending events. Recursive watches that are simulated (on platforms
+         * without native support) are bounded as a whole, instead of per
+         * directory.
+         * @param maxPendingEvents the maximum number of pending events per directory
+         * @return {@code this} (to support method chaining)
+         */
+        public Builder withMaxPendingEvents(int maxPendingEvents) {
+            this.maxPendingEvents = requirePositive(maxPendingEvents, "maxPendingEvents");
+            return this;
+        }
+
+        /**
+         * Optionally configure the maximum number of threads that register
+         * paths with the OS in parallel (default: the number of processors).
+         * @param threads the maximum number of threads
+         * @return {@code this} (to support method chaining)
+         */
+        public Builder withRegisterThreads(int threads) {
+            this.registerThreads = requirePositive(threads, "threads");
+            return this;
+        }
+
+        /**
+         * Optionally configure the number of threads that discover and
+         * register the directories of recursive watches in parallel, on
+         * platforms where recursive watches are simulated by registering each
+         * directory separately (default: system property
+         * {@code engineering.swat.java-watch.tree-start-parallelism}, or the
+         * number of processors). This mostly affects how long it takes to
+         * start a recursive watch of a large tree.
+         * @param parallelism the number of threads
+         * @return {@code this} (to support method chaining)
+         */
+        public Builder withTreeStartParallelism(int parallelism) {
+            this.treeStartParallelism = requirePositive(parallelism, "parallelism");
+            return this;
+        }
+
+        /**
+         * Optionally configure how often directories are scanned for changes
+         * when they can't be registered with the OS (default: system property
+         * {@code engineering.swat.java-watch.scan-interval-ms}, or 2 seconds).
+         * This happens, for instance, when a recursive watch on Linux exceeds
+         * the limit of inotify watches ({@code fs.inotify.max_user_watches}).
+         * Scanned directories are registered again when the OS accepts
+         * registrations again.
+         * @param interval the time between scans
+         * @return {@code this} (to support method chaining)
+         */
+        public Builder withScanInterval(Duration interval) {
+            if (interval.isNegative() || interval.isZero()) {
+                throw new IllegalArgumentException("The scan interval should be positive");
+            }
+            this.scanInterval = interval;
+            return this;
+        }
+
+        /**
+         * Optionally configure the maximum number of threads in the pool in
+         * which events are handled (default: the number of processors). This
+         * is ignored when an executor is configured using
+         * {@link #withExecutor(Executor)}.
+         * @param threads the maximum number of threads
+         * @return {@code this} (to support method chaining)
+         */
+        public Builder withHandlerThreads(int threads) {
+            this.handlerThreads = requirePositive(threads, "threads");
+            return this;
+        }
+
+        /**
+         * Optionally configure the executor in which events are handled, for
+         * all watches on the engine that do not configure their own executor
+         * (see {@link Watch#withExecutor(Executor)}). The executor is not
+         * shut down when the engine is closed.
+         * @param executor worker pool to use
+         * @return {@code this} (to support method chaining)
+         */
+        public Builder withExecutor(Executor executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("null is not allowed");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Optionally configure the engine to use virtual threads (Java 21+)
+         * for the poller threads, and to handle every batch of events in a
+         * new virtual thread (instead of in a pool of a fixed number of
+         * platform threads), such that event handlers that block (e.g., on
+         * I/O) don't hold up each other (default: system property
+         * {@code engineering.swat.java-watch.virtual-threads}, or
+         * {@code false}). This is ignored for event handling when an executor
+         * is configured using {@link #withExecutor(Executor)}. When the JVM
+         * does not support virtual threads, platform threads are used.
+         * @return {@code this} (to support method chaining)
+         */
+        public Builder withVirtualThreads() {
+            this.virtualThreads = true;
+            return this;
+        }
+
+        /**
+         * Optionally configure the engine to reuse event objects, instead of
+         * allocating new ones for every event, to reduce the allocation rate
+         * under sustained high event rates (default: system property
+         * {@code engineering.swat.java-watch.flyweight-events}, or
+         * {@code false}). The events passed to event handlers are then only
+         * valid while the handler runs: to retain an event (e.g., to handle it
+         * asynchronously, or to store it in a collection), use
+         * {@link WatchEvent#copy()}.
+         * @return {@code this} (to support method chaining)
+         */
+        public Builder withFlyweightEvents() {
+            this.flyweightEvents = true;
+            return this;
+        }
+
+        /**
+         * Start the engine.
+         * @return the engine, which should be closed when it's no longer needed
+         * @throws IOException in case the OS resources could not be acquired
+         */
+        public WatchEngine start() throws IOException {
+            return start(false);
+        }
+
+        private WatchEngine start(boolean isDefault) throws IOException {
+            var useVirtualThreads = virtualThreads && supportsVirtualThreads();
+            var pollerThreads = useVirtualThreads
+                ? DaemonThreadPool.buildVirtualFactory("JavaWatch-poller")
+                : null;
+            if (pollerThreads == null) {
+                pollerThreads = DaemonThreadPool.buildFactory("JavaWatch-poller");
+            }
+            var poller = new JDKPoller(shards, pollerBudget, registerThreads, pollerThreads, maxPendingEvents, flyweightEvents);
+            var executor = this.executor;
+            @Nullable ExecutorService ownedExecutor = null;
+            if (executor == null) {
+                ownedExecutor = useVirtualThreads
+                    ? DaemonThreadPool.buildVirtualPerTask("JavaWatch-internal-handler")
+                    : DaemonThreadPool.buildConstrainedCached("JavaWatch-internal-handler", handlerThreads);
+                executor = ownedExecutor;
+            }
+            var starter = DaemonThreadPool.buildConstrainedCached("JavaWatch-starter", Runtime.getRuntime().availableProcessors());
+            var treeStarter = DaemonThreadPool.buildForkJoin("JavaWatch-tree-starter", treeStartParallelism);
+            return new WatchEngine(poller, executor, ownedExecutor, starter, treeStarter, scanInterval, isDefault);
+        }
+    }
+}
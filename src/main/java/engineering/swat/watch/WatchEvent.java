@@ -28,11 +28,14 @@ package engineering.swat.watch;
 
 import java.nio.file.Path;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
  * The library publishes these events to all subscribers, they are immutable and safe to share around.
+ * The exception are engines that use flyweight events (see {@link WatchEngine.Builder#withFlyweightEvents()}):
+ * their events are only valid while the handler runs, so use {@link #copy()} to retain them.
  */
 public class WatchEvent {
 
@@ -65,11 +68,31 @@ public class WatchEvent {
         OVERFLOW
     }
 
+    /**
+     * Where an event comes from
+     */
+    public enum Source {
+        /**
+         * The event was reported by the OS.
+         */
+        NATIVE,
+        /**
+         * The event was issued by the library itself, e.g., to approximate the
+         * events that were missed due to an overflow, or to report an overflow
+         * of events that the handler couldn't keep up with.
+         */
+        SYNTHETIC
+    }
+
     private final Kind kind;
     private final Path rootPath;
     private final Path relativePath;
+    private final Source source;
+    private final long sequence;
+    private final long timestamp;
 
     private static final Path EMPTY_PATH = Path.of("");
+    private static final AtomicLong SEQUENCE = new AtomicLong();
 
     /**
      * Internal constructor an end user should never call, creates a new watch event for the root of a watch
@@ -87,9 +110,48 @@ public class WatchEvent {
      * @param relativePath the child path of the event
      */
     public WatchEvent(Kind kind, Path rootPath, @Nullable Path relativePath) {
+        this(kind, rootPath, relativePath, Source.SYNTHETIC, SEQUENCE.getAndIncrement(), System.nanoTime());
+    }
+
+    /**
+     * Internal constructor an end user should never call, creates a new watch
+     * event for the same occurrence as `origin` (e.g., relative to another
+     * root), with the same source, sequence number, and timestamp
+     * @param kind kind of watch event
+     * @param rootPath the path of the registered watch
+     * @param relativePath the child path of the event
+     * @param origin the event whose metadata is kept
+     */
+    public WatchEvent(Kind kind, Path rootPath, @Nullable Path relativePath, WatchEvent origin) {
+        this(kind, rootPath, relativePath, origin.getSource(), origin.getSequence(), origin.getTimestamp());
+    }
+
+    /**
+     * Internal constructor an end user should never call, creates a new watch event
+     * @param kind kind of watch event
+     * @param rootPath the path of the registered watch
+     * @param relativePath the child path of the event
+     * @param source where the event comes from
+     * @param sequence the sequence number of the event (see {@link #reserveSequenceNumbers(int)})
+     * @param timestamp the value of {@link System#nanoTime()} when the event was captured
+     */
+    public WatchEvent(Kind kind, Path rootPath, @Nullable Path relativePath, Source source, long sequence, long timestamp) {
         this.kind = kind;
         this.rootPath = rootPath;
         this.relativePath = relativePath == null ? EMPTY_PATH : relativePath;
+        this.source = source;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Internal method an end user should never call, reserves a range of
+     * consecutive sequence numbers (e.g., for a batch of events at once)
+     * @param count the number of sequence numbers to reserve
+     * @return the first reserved sequence number
+     */
+    public static long reserveSequenceNumbers(int count) {
+        return SEQUENCE.getAndAdd(count);
     }
 
     /**
@@ -115,6 +177,33 @@ public class WatchEvent {
         return rootPath;
     }
 
+    /**
+     * @return whether the event was reported by the OS, or issued by the library itself
+     */
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * @return the sequence number of the event. Sequence numbers are unique
+     * and increase in the order in which events are captured, across all
+     * watches (e.g., across the directories of a recursive watch). Events that
+     * are derived from the same occurrence (e.g., by filtering or coalescing)
+     * keep its sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the value of {@link System#nanoTime()} when the event was
+     * captured (i.e., polled from the OS, or issued by the library), which
+     * can be used to measure the latency of handling the event
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
     /**
      * @return utility function that resolves the relative path to the full path.
      */
@@ -136,6 +225,15 @@ public class WatchEvent {
         return fileName;
     }
 
+    /**
+     * @return an event with the same kind and paths as this event, which
+     * remains valid after the event handler returns. For regular (immutable)
+     * events, this is the event itself.
+     */
+    public WatchEvent copy() {
+        return this;
+    }
+
     @Override
     public String toString() {
         return String.format("WatchEvent[%s, %s, %s]", this.rootPath, this.kind, this.relativePath);
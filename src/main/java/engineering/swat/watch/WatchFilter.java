@@ -0,0 +1,324 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import engineering.swat.watch.impl.util.GlobTrie;
+
+/**
+ * <p>Declarative filter that determines which events are passed to the event
+ * handler of a watch (see {@link Watch#filter(WatchFilter)}). Filters are
+ * immutable: every {@code with...}/{@code only...} method returns a new
+ * filter.</p>
+ *
+ * <p>Unlike an arbitrary predicate, a declarative filter can be applied early:
+ * events of kinds that are not accepted are not even reported by the OS (if
+ * the OS supports it), and events for file names that are not accepted are
+ * dropped before they are translated into {@link WatchEvent}s.</p>
+ *
+ * <p>Glob patterns are compiled into a single matcher (instead of being
+ * tested one by one), so filters with many patterns (e.g., to exclude
+ * {@code .git}, {@code node_modules}, {@code target}, and editor swap files)
+ * remain cheap to evaluate.</p>
+ *
+ * <p>{@link WatchEvent.Kind#OVERFLOW} events are only subject to the kinds of
+ * the filter (not to the paths or types), as they concern the whole watched
+ * directory. Likewise, events for the watched path itself (e.g., of a single
+ * file watch) are not subject to the include/exclude patterns.</p>
+ */
+public final class WatchFilter implements Predicate<WatchEvent> {
+    private static final Path EMPTY_PATH = Path.of("");
+    private static final WatchFilter ALL = new WatchFilter(EnumSet.allOf(WatchEvent.Kind.class),
+        List.of(), GlobTrie.compile(List.of()), GlobTrie.compile(List.of()), Type.ANY, Integer.MAX_VALUE);
+
+    private enum Type { ANY, FILES, DIRECTORIES }
+
+    private final Set<WatchEvent.Kind> kinds;
+    private final List<String> fileNameGlobs;
+    private final GlobTrie fileNames;
+    private final GlobTrie includes;
+    private final GlobTrie excludes;
+    private final Type type;
+    private final int maxDepth;
+
+    private WatchFilter(Set<WatchEvent.Kind> kinds, List<String> fileNameGlobs, GlobTrie includes, GlobTrie excludes, Type type, int maxDepth) {
+        this.kinds = Collections.unmodifiableSet(kinds);
+        this.fileNameGlobs = List.copyOf(fileNameGlobs);
+        // Matched against the last name element of a path only
+        this.fileNames = GlobTrie.compile(fileNameGlobs);
+        this.includes = includes;
+        this.excludes = excludes;
+        this.type = type;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return the filter that accepts all events
+     */
+    public static WatchFilter all() {
+        return ALL;
+    }
+
+    /**
+     * @param kinds the kinds of events to accept (at least one)
+     * @return a filter that accepts only events of the given kinds (and that
+     * otherwise behaves the same as this filter)
+     */
+    public WatchFilter withKinds(WatchEvent.Kind... kinds) {
+        if (kinds.length == 0) {
+            throw new IllegalArgumentException("At least one kind should be accepted");
+        }
+        var set = EnumSet.noneOf(WatchEvent.Kind.class);
+        set.addAll(Arrays.asList(kinds));
+        return new WatchFilter(set, fileNameGlobs, includes, excludes, type, maxDepth);
+    }
+
+    /**
+     * @param globs glob patterns (see {@link java.nio.file.FileSystem#getPathMatcher(String)})
+     * of which at least one should match the file name (i.e., the last
+     * element of the path) of an event, for example {@code *.java}
+     * @return a filter that accepts only events for matching file names (and
+     * that otherwise behaves the same as this filter)
+     * @throws IllegalArgumentException if a glob pattern is invalid
+     */
+    public WatchFilter withFileNames(String... globs) {
+        checkGlobs(globs);
+        for (var glob : globs) {
+            if (glob.indexOf('/') >= 0) {
+                throw new IllegalArgumentException("File name glob patterns should not contain separators: " + glob);
+            }
+        }
+        return new WatchFilter(EnumSet.copyOf(kinds), Arrays.asList(globs), includes, excludes, type, maxDepth);
+    }
+
+    /**
+     * @param globs glob patterns (see {@link java.nio.file.FileSystem#getPathMatcher(String)},
+     * with {@code /} as separator) of which at least one should match the
+     * path of an event relative to the watched path, for example
+     * {@code src/**}{@code /*.java}
+     * @return a filter that accepts only events for matching paths (and that
+     * otherwise behaves the same as this filter)
+     * @throws IllegalArgumentException if a glob pattern is invalid, or if it
+     * is absolute
+     */
+    public WatchFilter withIncludes(String... globs) {
+        checkGlobs(globs);
+        return new WatchFilter(EnumSet.copyOf(kinds), fileNameGlobs, GlobTrie.compile(Arrays.asList(globs)), excludes, type, maxDepth);
+    }
+
+    /**
+     * @param globs glob patterns (see {@link java.nio.file.FileSystem#getPathMatcher(String)},
+     * with {@code /} as separator) of which none should match the path of an
+     * event relative to the watched path, nor any of its ancestors, for
+     * example {@code **}{@code /node_modules} (which also excludes everything
+     * inside {@code node_modules} directories)
+     * @return a filter that rejects events for matching paths and their
+     * descendants (and that otherwise behaves the same as this filter)
+     * @throws IllegalArgumentException if a glob pattern is invalid, or if it
+     * is absolute
+     */
+    public WatchFilter withExcludes(String... globs) {
+        checkGlobs(globs);
+        return new WatchFilter(EnumSet.copyOf(kinds), fileNameGlobs, includes, GlobTrie.compile(Arrays.asList(globs)), type, maxDepth);
+    }
+
+    /**
+     * @param depth the maximum number of levels below the watched path of
+     * the paths of events (at least 1), for example {@code 1} to accept only
+     * events for the direct children of the watched path. Directories below
+     * that depth are neither registered with the OS nor rescanned.
+     * @return a filter that accepts only events for paths up to the given
+     * depth (and that otherwise behaves the same as this filter)
+     */
+    public WatchFilter withMaxDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("The maximum depth should be at least 1");
+        }
+        return new WatchFilter(EnumSet.copyOf(kinds), fileNameGlobs, includes, excludes, type, depth);
+    }
+
+    private static void checkGlobs(String... globs) {
+        if (globs.length == 0) {
+            throw new IllegalArgumentException("At least one glob pattern should be given");
+        }
+    }
+
+    /**
+     * Note: deleted paths can't be inspected anymore, so
+     * {@link WatchEvent.Kind#DELETED} events are accepted regardless of the
+     * type of the deleted path.
+     * @return a filter that accepts only events for paths that are not
+     * directories (and that otherwise behaves the same as this filter)
+     */
+    public WatchFilter onlyFiles() {
+        return new WatchFilter(EnumSet.copyOf(kinds), fileNameGlobs, includes, excludes, Type.FILES, maxDepth);
+    }
+
+    /**
+     * Note: deleted paths can't be inspected anymore, so
+     * {@link WatchEvent.Kind#DELETED} events are accepted regardless of the
+     * type of the deleted path.
+     * @return a filter that accepts only events for directories (and that
+     * otherwise behaves the same as this filter)
+     */
+    public WatchFilter onlyDirectories() {
+        return new WatchFilter(EnumSet.copyOf(kinds), fileNameGlobs, includes, excludes, Type.DIRECTORIES, maxDepth);
+    }
+
+    /**
+     * @return the kinds of events that this filter accepts
+     */
+    public Set<WatchEvent.Kind> getKinds() {
+        return kinds;
+    }
+
+    /**
+     * @return the maximum depth of the paths of events that this filter
+     * accepts (or {@link Integer#MAX_VALUE} if unbounded)
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return the number of levels of `relativePath` below the watched path
+     * (0 for the watched path itself)
+     */
+    private static int depth(Path relativePath) {
+        return relativePath.equals(EMPTY_PATH) ? 0 : relativePath.getNameCount();
+    }
+
+    /**
+     * Tests whether the directory `relativeParent/child` can be skipped
+     * altogether (i.e., not registered with the OS and not rescanned),
+     * because this filter rejects all events for it and its descendants. The
+     * path doesn't need to be constructed.
+     * @param relativeParent the parent of `child`, relative to the watched
+     * path (empty for direct children of the watched path)
+     * @param child the path of the directory, relative to `relativeParent`
+     * @return {@code true} iff the directory (or one of its ancestors) is
+     * excluded
+     */
+    public boolean excludesSubtree(Path relativeParent, Path child) {
+        return !excludes.isEmpty() && excludes.matchesSelfOrAncestor(relativeParent, child);
+    }
+
+    /**
+     * Tests whether the contents of the directory `relativeParent/child` can
+     * be skipped (i.e., the directory doesn't need to be registered with the
+     * OS, and it doesn't need to be rescanned), because this filter rejects
+     * all events for its descendants: either the directory is excluded (see
+     * {@link #excludesSubtree(Path, Path)}), or its descendants are deeper
+     * than the maximum depth. Events for the directory itself might still be
+     * accepted.
+     * @param relativeParent the parent of `child`, relative to the watched
+     * path (empty for direct children of the watched path)
+     * @param child the path of the directory, relative to `relativeParent`
+     * @return {@code true} iff the descendants of the directory are rejected
+     */
+    public boolean excludesDescendants(Path relativeParent, Path child) {
+        return (maxDepth != Integer.MAX_VALUE && depth(relativeParent) + depth(child) >= maxDepth)
+            || excludesSubtree(relativeParent, child);
+    }
+
+    /**
+     * Tests only the kind and path of an event, which doesn't require an
+     * event object (or access to the file system). The path of the event
+     * (relative to the watched path) is `relativeParent/child`, but it
+     * doesn't need to be constructed.
+     * @param kind the kind of the event
+     * @param relativeParent the parent of `child`, relative to the watched
+     * path (empty for direct children of the watched path)
+     * @param child the path of the event, relative to `relativeParent` (or
+     * {@code null} if unknown)
+     * @return {@code false} if the event is certainly rejected by this filter
+     */
+    public boolean mightAccept(WatchEvent.Kind kind, Path relativeParent, @Nullable Path child) {
+        if (!kinds.contains(kind)) {
+            return false;
+        }
+        if (maxDepth != Integer.MAX_VALUE && child != null && kind != WatchEvent.Kind.OVERFLOW
+                && depth(relativeParent) + depth(child) > maxDepth) {
+            return false;
+        }
+        if (kind == WatchEvent.Kind.OVERFLOW || child == null
+                || (fileNames.isEmpty() && includes.isEmpty() && excludes.isEmpty())) {
+            return true;
+        }
+        return (fileNames.isEmpty() || matchesFileName(child))
+            && (includes.isEmpty() || includes.matches(relativeParent, child))
+            && (excludes.isEmpty() || !excludes.matchesSelfOrAncestor(relativeParent, child));
+    }
+
+    private boolean matchesFileName(Path child) {
+        var fileName = child.getFileName();
+        return fileName != null && fileNames.matches(fileName);
+    }
+
+    private boolean acceptsType(WatchEvent event) {
+        if (type == Type.ANY || event.getKind() != WatchEvent.Kind.CREATED && event.getKind() != WatchEvent.Kind.MODIFIED) {
+            return true;
+        }
+        var isDirectory = Files.isDirectory(event.calculateFullPath(), LinkOption.NOFOLLOW_LINKS);
+        return type == Type.DIRECTORIES ? isDirectory : !isDirectory;
+    }
+
+    // -- Predicate --
+
+    @Override
+    public boolean test(WatchEvent event) {
+        if (event.getKind() == WatchEvent.Kind.OVERFLOW) {
+            return kinds.contains(WatchEvent.Kind.OVERFLOW);
+        }
+        var relativePath = event.getRelativePath();
+        if (relativePath.equals(EMPTY_PATH)) {
+            // Only the name of the watched path itself is subject to the filter
+            var fileName = event.getFileName();
+            return kinds.contains(event.getKind())
+                && (fileName == null || fileNames.isEmpty() || fileNames.matches(fileName))
+                && acceptsType(event);
+        }
+        return mightAccept(event.getKind(), EMPTY_PATH, relativePath) && acceptsType(event);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WatchFilter[%s, %s, +%s, -%s, %s, %s]", kinds, fileNameGlobs, includes, excludes, type,
+            maxDepth == Integer.MAX_VALUE ? "any depth" : "depth <= " + maxDepth);
+    }
+}
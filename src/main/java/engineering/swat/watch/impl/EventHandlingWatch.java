@@ -26,6 +26,8 @@
  */
 package engineering.swat.watch.impl;
 
+import java.util.List;
+
 import engineering.swat.watch.ActiveWatch;
 import engineering.swat.watch.WatchEvent;
 
@@ -39,6 +41,27 @@ public interface EventHandlingWatch extends ActiveWatch {
      */
     void handleEvent(WatchEvent event);
 
+    /**
+     * Handles a batch of `events` at once, in the same way as `handleEvent`
+     * (but the event handler of this watch is triggered only once for the
+     * whole batch). By default, the events are handled one by one.
+     */
+    default void handleEvents(List<WatchEvent> events) {
+        for (var event : events) {
+            handleEvent(event);
+        }
+    }
+
+    /**
+     * Notifies this watch that the events of an overflow are about to be
+     * approximated by a rescan (e.g., by a {@code MemorylessRescanner}), and
+     * returns the callback to run when the rescan has completed. By default,
+     * the callback does nothing.
+     */
+    default Runnable startRescan() {
+        return () -> {};
+    }
+
     /**
      * Relativizes the full path of `event` against the path watched by this
      * watch (as per `getPath()`). Returns a new event whose root path and
@@ -50,6 +73,6 @@ public interface EventHandlingWatch extends ActiveWatch {
         var kind = event.getKind();
         var rootPath = getPath();
         var relativePath = rootPath.relativize(fullPath);
-        return new WatchEvent(kind, rootPath, relativePath);
+        return new WatchEvent(kind, rootPath, relativePath, event);
     }
 }
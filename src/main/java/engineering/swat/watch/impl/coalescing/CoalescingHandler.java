@@ -0,0 +1,234 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.coalescing;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.impl.EventHandlingWatch;
+import engineering.swat.watch.impl.util.KeyedSerialExecutor;
+
+/**
+ * Event handler that coalesces the events for the same full path, within a
+ * time window, into their net effect, before passing them downstream. The net
+ * effect is computed as follows (in order of arrival):
+ *
+ * <ul>
+ * <li>`CREATED` + `MODIFIED` = `CREATED`</li>
+ * <li>`CREATED` + `DELETED` = nothing</li>
+ * <li>`MODIFIED` + `MODIFIED` = `MODIFIED`</li>
+ * <li>`MODIFIED` + `DELETED` = `DELETED`</li>
+ * <li>`DELETED` + `CREATED` = `MODIFIED`</li>
+ * </ul>
+ *
+ * The window of a path starts with its first event, so events are delayed by
+ * at most the window (plus one tick). `OVERFLOW` events are not coalesced:
+ * they flush all pending events and are passed downstream immediately. When
+ * the maximum number of pending paths is reached, the events for new paths are
+ * passed downstream immediately as well, so memory usage stays bounded.
+ *
+ * All events are passed downstream serially (on a single lane of the
+ * executor), in the order in which they became ready, so the events for the
+ * same path are never reordered.
+ */
+public class CoalescingHandler implements BiConsumer<EventHandlingWatch, List<WatchEvent>> {
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Default maximum number of paths with pending events
+     */
+    public static final int DEFAULT_MAX_PENDING = 64 * 1024;
+    private static final int MAX_TICKS_PER_WINDOW = 32;
+
+    private final BiConsumer<EventHandlingWatch, List<WatchEvent>> downstream;
+    private final Executor exec;
+    private final Executor delivery;
+    private final int maxPending;
+    private final long tickNanos;
+
+    // Guarded by `this`. Each pending path is scheduled in the wheel, so the
+    // wheel is bounded by `maxPending` as well.
+    private final Map<Path, Pending> pending = new HashMap<>();
+    private final TimerWheel<Pending> wheel;
+    private boolean ticking = false;
+
+    public CoalescingHandler(BiConsumer<EventHandlingWatch, List<WatchEvent>> downstream,
+            Duration window, int maxPending, Executor exec) {
+
+        if (window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("The window should be positive");
+        }
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("The maximum number of pending paths should be positive");
+        }
+        // Ticks of (roughly) a millisecond are precise enough for a window
+        var ticks = (int) Math.max(1, Math.min(MAX_TICKS_PER_WINDOW, window.toMillis()));
+        this.downstream = downstream;
+        this.exec = exec;
+        this.delivery = new KeyedSerialExecutor(exec, 1);
+        this.maxPending = maxPending;
+        this.tickNanos = window.toNanos() / ticks;
+        this.wheel = new TimerWheel<>(ticks);
+    }
+
+    private static class Pending extends TimerWheel.Entry<Pending> {
+        private final EventHandlingWatch watch;
+        private WatchEvent event;
+
+        Pending(EventHandlingWatch watch, WatchEvent event) {
+            this.watch = watch;
+            this.event = event;
+        }
+    }
+
+    /**
+     * Computes the net kind of `first` followed by `next`, or `null` if they
+     * cancel each other out
+     */
+    static WatchEvent.@Nullable Kind merge(WatchEvent.Kind first, WatchEvent.Kind next) {
+        switch (first) {
+            case CREATED:
+                return next == WatchEvent.Kind.DELETED ? null : WatchEvent.Kind.CREATED;
+            case DELETED:
+                return next == WatchEvent.Kind.DELETED ? WatchEvent.Kind.DELETED : WatchEvent.Kind.MODIFIED;
+            default:
+                return next;
+        }
+    }
+
+    private void scheduleTick() {
+        CompletableFuture
+            .delayedExecutor(tickNanos, TimeUnit.NANOSECONDS, exec)
+            .execute(this::tick);
+    }
+
+    private void tick() {
+        synchronized (this) {
+            var ready = wheel.tick();
+            for (var p : ready) {
+                pending.remove(p.event.calculateFullPath());
+            }
+            deliver(ready);
+            ticking = !pending.isEmpty();
+            if (ticking) {
+                scheduleTick();
+            }
+        }
+    }
+
+    private void flushAll(List<Pending> ready) {
+        for (var p : pending.values()) {
+            wheel.cancel(p);
+            ready.add(p);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Passes the events of `ready` downstream, on the delivery lane. This
+     * method should be called while holding the lock, so the order in which
+     * events are passed downstream is the order in which they became ready.
+     */
+    private void deliver(List<Pending> ready) {
+        if (ready.isEmpty()) {
+            return;
+        }
+        // Group the events by watch, to pass them downstream in batches
+        var batches = new IdentityHashMap<EventHandlingWatch, List<WatchEvent>>();
+        for (var p : ready) {
+            batches.computeIfAbsent(p.watch, w -> new ArrayList<>()).add(p.event);
+        }
+        delivery.execute(() -> {
+            for (var e : batches.entrySet()) {
+                try {
+                    downstream.accept(e.getKey(), e.getValue());
+                } catch (Throwable t) {
+                    logger.error("Ignoring downstream exception:", t);
+                }
+            }
+        });
+    }
+
+    // -- BiConsumer --
+
+    @Override
+    public void accept(EventHandlingWatch watch, List<WatchEvent> events) {
+        var ready = new ArrayList<Pending>(0);
+        synchronized (this) {
+            for (var e : events) {
+                var kind = e.getKind();
+                if (kind == WatchEvent.Kind.OVERFLOW) {
+                    flushAll(ready);
+                    ready.add(new Pending(watch, e.copy()));
+                    continue;
+                }
+
+                var fullPath = e.calculateFullPath();
+                var p = pending.get(fullPath);
+                if (p == null) {
+                    if (pending.size() >= maxPending) {
+                        ready.add(new Pending(watch, e.copy())); // Passed downstream asynchronously
+                        continue;
+                    }
+                    p = new Pending(watch, e.copy()); // Retained after this call
+                    pending.put(fullPath, p);
+                    wheel.schedule(p);
+                    continue;
+                }
+
+                var merged = merge(p.event.getKind(), kind);
+                if (merged == null) {
+                    wheel.cancel(p);
+                    pending.remove(fullPath);
+                } else if (merged == kind) {
+                    p.event = e.copy();
+                } else if (merged != p.event.getKind()) {
+                    p.event = new WatchEvent(merged, e.getRootPath(), e.getRelativePath(), e);
+                }
+            }
+            deliver(ready);
+            if (!ticking && !pending.isEmpty()) {
+                ticking = true;
+                scheduleTick();
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.coalescing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Hashed timer wheel (without rounds) to expire items after a fixed number of
+ * ticks. Adding, cancelling, and expiring items takes constant time per item,
+ * regardless of how many items are scheduled, so a single timer suffices to
+ * drive the wheel (instead of one timer per item). Items are linked into
+ * their slot intrusively (see {@link Entry}), so cancelled items are removed
+ * right away instead of lingering until their slot expires. This class is not
+ * thread-safe.
+ */
+class TimerWheel<T extends TimerWheel.Entry<T>> {
+    private final List<@Nullable T> heads;
+    private final List<@Nullable T> tails;
+    private int current = 0;
+    private int size = 0;
+
+    /**
+     * Base class of the items of a wheel, which links them into their slot.
+     * An item can be scheduled in at most one wheel at a time.
+     */
+    static class Entry<T extends Entry<T>> {
+        // Not private, as the wheel accesses them via `T`
+        @Nullable T prev;
+        @Nullable T next;
+        int slot = -1;
+
+        boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+
+    /**
+     * @param ticks The number of ticks after which scheduled items expire
+     */
+    TimerWheel(int ticks) {
+        if (ticks < 1) {
+            throw new IllegalArgumentException("The number of ticks should be positive");
+        }
+        this.heads = new ArrayList<>(ticks + 1);
+        this.tails = new ArrayList<>(ticks + 1);
+        for (int i = 0; i <= ticks; i++) {
+            heads.add(null);
+            tails.add(null);
+        }
+    }
+
+    /**
+     * Schedules `item` to expire after the configured number of ticks
+     */
+    void schedule(T item) {
+        if (item.isScheduled()) {
+            throw new IllegalStateException("The item is scheduled already");
+        }
+        var slot = (current + heads.size() - 1) % heads.size();
+        var tail = tails.get(slot);
+        item.slot = slot;
+        item.prev = tail;
+        item.next = null;
+        if (tail == null) {
+            heads.set(slot, item);
+        } else {
+            tail.next = item;
+        }
+        tails.set(slot, item);
+        size++;
+    }
+
+    /**
+     * Removes `item` from the wheel (if it's scheduled), so it won't expire
+     */
+    void cancel(T item) {
+        if (!item.isScheduled()) {
+            return;
+        }
+        var prev = item.prev;
+        var next = item.next;
+        if (prev == null) {
+            heads.set(item.slot, next);
+        } else {
+            prev.next = next;
+        }
+        if (next == null) {
+            tails.set(item.slot, prev);
+        } else {
+            next.prev = prev;
+        }
+        item.prev = null;
+        item.next = null;
+        item.slot = -1;
+        size--;
+    }
+
+    /**
+     * Advances the wheel by one tick and returns the items that expire (in
+     * the order in which they were scheduled)
+     */
+    List<T> tick() {
+        current = (current + 1) % heads.size();
+        var item = heads.get(current);
+        if (item == null) {
+            return List.of();
+        }
+        heads.set(current, null);
+        tails.set(current, null);
+        var expired = new ArrayList<T>();
+        while (item != null) {
+            var next = item.next;
+            item.prev = null;
+            item.next = null;
+            item.slot = -1;
+            expired.add(item);
+            item = next;
+        }
+        size -= expired.size();
+        return expired;
+    }
+
+    /**
+     * @return The number of scheduled items
+     */
+    int size() {
+        return size;
+    }
+}
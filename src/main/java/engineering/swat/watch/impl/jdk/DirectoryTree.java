@@ -0,0 +1,361 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Compact tree of the directories of a recursive watch: each directory is a
+ * node, identified by an index into parallel arrays (of parents, names,
+ * registrations, etc.), instead of an object graph. Children are found by
+ * name through a single open-addressing table for the whole tree, and they
+ * are enumerated through intrusive sibling lists.
+ *
+ * Indices of removed nodes are reused. To detect stale references to a
+ * removed node (e.g., by events that were dispatched before the removal),
+ * each node has a generation, which is bumped on removal.
+ *
+ * This class is not thread-safe.
+ */
+final class DirectoryTree {
+    static final int NONE = -1;
+    static final int ROOT = 0;
+
+    private static final Path EMPTY_PATH = Path.of("");
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int TOMBSTONE = -1;
+
+    private int[] parents;
+    private @Nullable Path[] names;
+    private @Nullable Closeable[] registrations;
+    private int[] generations;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private int[] prevSiblings;
+
+    // Open-addressing table (linear probing) from (parent, name) to node:
+    // slots contain node + 1, 0 (empty), or `TOMBSTONE` (removed)
+    private int[] table;
+    private int tableUsed = 0;
+
+    private int size = 0;
+    private int highWater = 0;
+    // Free nodes are linked through `nextSiblings`
+    private int freeHead = NONE;
+
+    DirectoryTree() {
+        parents = new int[INITIAL_CAPACITY];
+        names = new @Nullable Path[INITIAL_CAPACITY];
+        registrations = new @Nullable Closeable[INITIAL_CAPACITY];
+        generations = new int[INITIAL_CAPACITY];
+        firstChildren = new int[INITIAL_CAPACITY];
+        nextSiblings = new int[INITIAL_CAPACITY];
+        prevSiblings = new int[INITIAL_CAPACITY];
+        table = new int[2 * INITIAL_CAPACITY];
+        allocate(NONE, EMPTY_PATH); // The root
+    }
+
+    /**
+     * @return The number of nodes (including the root)
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of array slots that this tree occupies (in its seven
+     * parallel arrays and its table), which determines its own memory
+     * footprint (i.e., excluding the names and registrations)
+     */
+    int slots() {
+        return 7 * parents.length + table.length;
+    }
+
+    int generation(int node) {
+        return generations[node];
+    }
+
+    boolean isLive(int node, int generation) {
+        return node < highWater && names[node] != null && generations[node] == generation;
+    }
+
+    @Nullable Closeable getRegistration(int node) {
+        return registrations[node];
+    }
+
+    void setRegistration(int node, @Nullable Closeable registration) {
+        registrations[node] = registration;
+    }
+
+    /**
+     * Applies `consumer` to each registration (and its node) in this tree
+     */
+    void forEachRegistration(ObjIntConsumer<Closeable> consumer) {
+        for (int node = 0; node < highWater; node++) {
+            var registration = registrations[node];
+            if (registration != null && names[node] != null) {
+                consumer.accept(registration, node);
+            }
+        }
+    }
+
+    /**
+     * @return The child of `parent` named `name`, or {@link #NONE}
+     */
+    int find(int parent, Path name) {
+        var mask = table.length - 1;
+        for (int i = hash(parent, name) & mask; ; i = (i + 1) & mask) {
+            var slot = table[i];
+            if (slot == 0) {
+                return NONE;
+            }
+            if (slot != TOMBSTONE && parents[slot - 1] == parent && name.equals(names[slot - 1])) {
+                return slot - 1;
+            }
+        }
+    }
+
+    /**
+     * @return The (new or existing) child of `parent` named `name`
+     */
+    int add(int parent, Path name) {
+        var existing = find(parent, name);
+        if (existing != NONE) {
+            return existing;
+        }
+        var node = allocate(parent, name);
+        var first = firstChildren[parent];
+        nextSiblings[node] = first;
+        if (first != NONE) {
+            prevSiblings[first] = node;
+        }
+        firstChildren[parent] = node;
+        insert(node);
+        return node;
+    }
+
+    /**
+     * @return The children of `node`
+     */
+    List<Integer> children(int node) {
+        var result = new ArrayList<Integer>();
+        for (int c = firstChildren[node]; c != NONE; c = nextSiblings[c]) {
+            result.add(c);
+        }
+        return result;
+    }
+
+    /**
+     * @return The name of `node` (empty for the root)
+     */
+    Path name(int node) {
+        var name = names[node];
+        if (name == null) {
+            throw new IllegalArgumentException("Node " + node + " was removed");
+        }
+        return name;
+    }
+
+    /**
+     * @return The parent of `node`, or {@link #NONE} for the root
+     */
+    int parent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @return The path of `node` relative to the root
+     */
+    Path relativePath(int node) {
+        if (node == ROOT) {
+            return EMPTY_PATH;
+        }
+        var parent = parents[node];
+        return parent == ROOT ? name(node) : relativePath(parent).resolve(name(node));
+    }
+
+    /**
+     * Removes `node` (which shouldn't be the root) and all its descendants
+     * @param removedRegistrations collects the registrations of the removed
+     * nodes (which need to be closed)
+     */
+    void remove(int node, List<Closeable> removedRegistrations) {
+        if (node == ROOT) {
+            throw new IllegalArgumentException("The root cannot be removed");
+        }
+        var parent = parents[node];
+        var prev = prevSiblings[node];
+        var next = nextSiblings[node];
+        if (prev == NONE) {
+            firstChildren[parent] = next;
+        } else {
+            nextSiblings[prev] = next;
+        }
+        if (next != NONE) {
+            prevSiblings[next] = prev;
+        }
+        release(node, removedRegistrations);
+    }
+
+    /**
+     * Removes all nodes except the root, and the registration of the root
+     * @param removedRegistrations collects the removed registrations
+     */
+    void clear(List<Closeable> removedRegistrations) {
+        for (int c = firstChildren[ROOT]; c != NONE; ) {
+            var next = nextSiblings[c];
+            release(c, removedRegistrations);
+            c = next;
+        }
+        firstChildren[ROOT] = NONE;
+        var registration = registrations[ROOT];
+        if (registration != null) {
+            removedRegistrations.add(registration);
+            registrations[ROOT] = null;
+        }
+    }
+
+    private void release(int node, List<Closeable> removedRegistrations) {
+        // Iteratively (instead of recursively), as trees can be deep
+        var stack = new ArrayList<Integer>();
+        stack.add(node);
+        while (!stack.isEmpty()) {
+            var n = stack.remove(stack.size() - 1);
+            for (int c = firstChildren[n]; c != NONE; c = nextSiblings[c]) {
+                stack.add(c);
+            }
+            var registration = registrations[n];
+            if (registration != null) {
+                removedRegistrations.add(registration);
+            }
+            delete(n);
+            registrations[n] = null;
+            names[n] = null;
+            parents[n] = NONE;
+            firstChildren[n] = NONE;
+            prevSiblings[n] = NONE;
+            generations[n]++;
+            nextSiblings[n] = freeHead;
+            freeHead = n;
+            size--;
+        }
+    }
+
+    private int allocate(int parent, Path name) {
+        int node;
+        if (freeHead != NONE) {
+            node = freeHead;
+            freeHead = nextSiblings[node];
+        } else {
+            if (highWater == parents.length) {
+                grow();
+            }
+            node = highWater++;
+        }
+        parents[node] = parent;
+        names[node] = name;
+        registrations[node] = null;
+        firstChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        prevSiblings[node] = NONE;
+        size++;
+        return node;
+    }
+
+    private void grow() {
+        var capacity = parents.length * 2;
+        parents = Arrays.copyOf(parents, capacity);
+        var newNames = new @Nullable Path[capacity];
+        System.arraycopy(names, 0, newNames, 0, names.length);
+        names = newNames;
+        var newRegistrations = new @Nullable Closeable[capacity];
+        System.arraycopy(registrations, 0, newRegistrations, 0, registrations.length);
+        registrations = newRegistrations;
+        generations = Arrays.copyOf(generations, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        prevSiblings = Arrays.copyOf(prevSiblings, capacity);
+    }
+
+    private void insert(int node) {
+        // Keep the load factor (including tombstones) at most 1/2
+        if (2 * (tableUsed + 1) > table.length) {
+            rehash(2 * size > table.length / 2 ? 2 * table.length : table.length);
+        }
+        var mask = table.length - 1;
+        var i = hash(parents[node], name(node)) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = node + 1;
+        tableUsed++;
+    }
+
+    private void delete(int node) {
+        var name = names[node];
+        if (name == null || node == ROOT) {
+            return;
+        }
+        var mask = table.length - 1;
+        for (int i = hash(parents[node], name) & mask; table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == node + 1) {
+                table[i] = TOMBSTONE;
+                return;
+            }
+        }
+    }
+
+    private void rehash(int length) {
+        var old = table;
+        table = new int[length];
+        tableUsed = 0;
+        var mask = length - 1;
+        for (var slot : old) {
+            if (slot > 0) {
+                var node = slot - 1;
+                var i = hash(parents[node], name(node)) & mask;
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = slot;
+                tableUsed++;
+            }
+        }
+    }
+
+    private static int hash(int parent, Path name) {
+        var h = 31 * parent + name.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
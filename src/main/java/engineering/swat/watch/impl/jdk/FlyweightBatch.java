@@ -0,0 +1,88 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import engineering.swat.watch.WatchEvent;
+
+/**
+ * Reusable batch of flyweight events. The slots of the batch are allocated
+ * once (growing to the largest batch seen) and are reused for every batch.
+ * This class is not thread-safe: a batch should be used by one thread at a
+ * time.
+ */
+final class FlyweightBatch extends AbstractList<WatchEvent> implements RandomAccess {
+    private final List<FlyweightWatchEvent> slots = new ArrayList<>();
+    private int size = 0;
+
+    /**
+     * Adds a slot to this batch, and returns it (to be set by the caller)
+     */
+    FlyweightWatchEvent next() {
+        if (size == slots.size()) {
+            slots.add(new FlyweightWatchEvent());
+        }
+        return slots.get(size++);
+    }
+
+    /**
+     * Removes the slot that was most recently added to this batch
+     */
+    void discardLast() {
+        slots.get(--size).clear();
+    }
+
+    /**
+     * Removes all slots from this batch (but keeps them for reuse)
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            slots.get(i).clear();
+        }
+        size = 0;
+    }
+
+    // -- AbstractList --
+
+    @Override
+    public WatchEvent get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return slots.get(index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
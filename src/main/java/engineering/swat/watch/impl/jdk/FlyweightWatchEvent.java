@@ -0,0 +1,152 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import java.nio.file.Path;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import engineering.swat.watch.WatchEvent;
+
+/**
+ * Mutable event that is reused for many JDK events (when flyweight events are
+ * enabled), to avoid allocating a new event (and its relative path) for each
+ * JDK event. An instance is valid only while the batch that it belongs to is
+ * being handled; {@link #copy()} returns an immutable event to retain.
+ */
+final class FlyweightWatchEvent extends WatchEvent {
+    private static final Path EMPTY_PATH = Path.of("");
+
+    private Kind kind = Kind.OVERFLOW;
+    private Path rootPath = EMPTY_PATH;
+    private @Nullable Path relativePathParent = null;
+    private @Nullable Path child = null;
+    private Source source = Source.SYNTHETIC;
+    private long sequence = 0;
+    private long timestamp = 0;
+
+    FlyweightWatchEvent() {
+        super(Kind.OVERFLOW, EMPTY_PATH, null, Source.SYNTHETIC, 0, 0);
+    }
+
+    /**
+     * Sets the content of this event to the `index`-th event of `batch`,
+     * relative to `rootPath`. The relative path is resolved lazily (i.e.,
+     * only when it's requested) from `relativePathParent` and the child of
+     * the event. If the child is `null`, the relative path is empty.
+     */
+    void set(SharedEventBatch batch, int index, Path rootPath, @Nullable Path relativePathParent) {
+        this.kind = batch.kind(index);
+        this.rootPath = rootPath;
+        this.relativePathParent = relativePathParent;
+        this.child = batch.child(index);
+        this.source = batch.getSource();
+        this.sequence = batch.sequence(index);
+        this.timestamp = batch.getTimestamp();
+    }
+
+    /**
+     * Clears the content of this event, so it doesn't keep paths alive
+     */
+    void clear() {
+        this.kind = Kind.OVERFLOW;
+        this.rootPath = EMPTY_PATH;
+        this.relativePathParent = null;
+        this.child = null;
+    }
+
+    // -- WatchEvent --
+
+    @Override
+    public Kind getKind() {
+        return kind;
+    }
+
+    @Override
+    public Path getRootPath() {
+        return rootPath;
+    }
+
+    @Override
+    public Source getSource() {
+        return source;
+    }
+
+    @Override
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public Path getRelativePath() {
+        var c = child;
+        if (c == null) {
+            return EMPTY_PATH;
+        }
+        var p = relativePathParent;
+        return p == null ? c : p.resolve(c);
+    }
+
+    @Override
+    public Path calculateFullPath() {
+        return rootPath.resolve(getRelativePath());
+    }
+
+    @Override
+    public @Nullable Path getFileName() {
+        var c = child;
+        if (c != null) {
+            var fileName = c.getFileName();
+            if (fileName != null && !fileName.equals(EMPTY_PATH)) {
+                return fileName;
+            }
+        }
+        // Events without a file name of their own (e.g., overflows) are named
+        // after their directory, computed from the current content of this
+        // event (the fields of the superclass are dummies)
+        var fileName = getRelativePath().getFileName();
+        if (fileName == null || fileName.equals(EMPTY_PATH)) {
+            fileName = rootPath.getFileName();
+        }
+        return fileName;
+    }
+
+    @Override
+    public WatchEvent copy() {
+        return new WatchEvent(kind, rootPath, getRelativePath(), source, sequence, timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WatchEvent[%s, %s, %s]", rootPath, kind, getRelativePath());
+    }
+}
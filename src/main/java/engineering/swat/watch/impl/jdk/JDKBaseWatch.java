@@ -28,7 +28,8 @@ package engineering.swat.watch.impl.jdk;
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.nio.file.StandardWatchEventKinds;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
@@ -36,26 +37,28 @@ import java.util.function.Predicate;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.checkerframework.checker.nullness.qual.Nullable;
 
 import engineering.swat.watch.WatchEvent;
 import engineering.swat.watch.impl.EventHandlingWatch;
+import engineering.swat.watch.impl.util.KeyedSerialExecutor;
 
 public abstract class JDKBaseWatch implements EventHandlingWatch {
     private final Logger logger = LogManager.getLogger();
 
     protected final Path path;
     protected final Executor exec;
-    protected final BiConsumer<EventHandlingWatch, WatchEvent> eventHandler;
+    protected final BiConsumer<EventHandlingWatch, List<WatchEvent>> eventHandler;
     protected final Predicate<WatchEvent> eventFilter;
     protected final AtomicBoolean started = new AtomicBoolean();
 
     protected JDKBaseWatch(Path path, Executor exec,
-            BiConsumer<EventHandlingWatch, WatchEvent> eventHandler,
+            BiConsumer<EventHandlingWatch, List<WatchEvent>> eventHandler,
             Predicate<WatchEvent> eventFilter) {
 
         this.path = path;
-        this.exec = exec;
+        // With a keyed serial executor, all tasks for this watch (including
+        // the handling of its events) run in order
+        this.exec = KeyedSerialExecutor.laneFor(exec, path);
         this.eventHandler = eventHandler;
         this.eventFilter = eventFilter;
     }
@@ -95,31 +98,21 @@ public abstract class JDKBaseWatch implements EventHandlingWatch {
         }
     }
 
-    protected WatchEvent translate(java.nio.file.WatchEvent<?> jdkEvent) {
-        var kind = translate(jdkEvent.kind());
-        var rootPath = path;
-        var relativePath = kind == WatchEvent.Kind.OVERFLOW ? null : (@Nullable Path) jdkEvent.context();
-
-        var event = new WatchEvent(kind, rootPath, relativePath);
-        logger.trace("Translated: {} to {}", jdkEvent, event);
-        return event;
+    /**
+     * Translates the `index`-th event of `batch` (which contains the events
+     * for the path of this watch). By default, the shared translation is used.
+     */
+    protected WatchEvent translate(SharedEventBatch batch, int index) {
+        return batch.get(index);
     }
 
-    protected WatchEvent.Kind translate(java.nio.file.WatchEvent.Kind<?> jdkKind) {
-        if (jdkKind == StandardWatchEventKinds.ENTRY_CREATE) {
-            return WatchEvent.Kind.CREATED;
-        }
-        if (jdkKind == StandardWatchEventKinds.ENTRY_MODIFY) {
-            return WatchEvent.Kind.MODIFIED;
-        }
-        if (jdkKind == StandardWatchEventKinds.ENTRY_DELETE) {
-            return WatchEvent.Kind.DELETED;
-        }
-        if (jdkKind == StandardWatchEventKinds.OVERFLOW) {
-            return WatchEvent.Kind.OVERFLOW;
-        }
-
-        throw new IllegalArgumentException("Unexpected watch kind: " + jdkKind);
+    /**
+     * Translates the `index`-th event of `batch` in the same way as
+     * {@link #translate(SharedEventBatch, int)}, but into reusable event
+     * `into` (instead of into a new or shared event)
+     */
+    void translate(SharedEventBatch batch, int index, FlyweightWatchEvent into) {
+        into.set(batch, index, path, null);
     }
 
     // -- EventHandlingWatch --
@@ -131,8 +124,36 @@ public abstract class JDKBaseWatch implements EventHandlingWatch {
 
     @Override
     public void handleEvent(WatchEvent e) {
-        if (eventFilter.test(e)) {
-            eventHandler.accept(this, e);
+        handleEvents(List.of(e));
+    }
+
+    @Override
+    public void handleEvents(List<WatchEvent> events) {
+        var filtered = filter(events);
+        if (!filtered.isEmpty()) {
+            eventHandler.accept(this, filtered);
+        }
+    }
+
+    /**
+     * @return The events that pass the event filter of this watch (which is
+     * `events` itself when none of them are dropped)
+     */
+    protected List<WatchEvent> filter(List<WatchEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            if (!eventFilter.test(events.get(i))) {
+                // Only copy the batch when an event is actually dropped
+                var filtered = new ArrayList<WatchEvent>(events.size() - 1);
+                filtered.addAll(events.subList(0, i));
+                for (int j = i + 1; j < events.size(); j++) {
+                    var e = events.get(j);
+                    if (eventFilter.test(e)) {
+                        filtered.add(e);
+                    }
+                }
+                return filtered;
+            }
         }
+        return events;
     }
 }
@@ -29,60 +29,233 @@ package engineering.swat.watch.impl.jdk;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchFilter;
 import engineering.swat.watch.WatchScope;
 import engineering.swat.watch.impl.EventHandlingWatch;
-import engineering.swat.watch.impl.util.BundledSubscription;
 import engineering.swat.watch.impl.util.SubscriptionKey;
 
 public class JDKDirectoryWatch extends JDKBaseWatch {
-    private final Logger logger = LogManager.getLogger();
+    private static final Logger logger = LogManager.getLogger();
     private final boolean nativeRecursive;
     private volatile @MonotonicNonNull Closeable bundledJDKWatcher;
     private volatile boolean closed = false;
+    private final JDKPoller poller;
+    private final WatchFilter filter;
 
-    private static final BundledSubscription<SubscriptionKey, List<java.nio.file.WatchEvent<?>>>
-        BUNDLED_JDK_WATCHERS = new BundledSubscription<>(JDKPoller::register);
+    private static final Path EMPTY_PATH = Path.of("");
 
-    public JDKDirectoryWatch(Path directory, Executor exec,
-            BiConsumer<EventHandlingWatch, WatchEvent> eventHandler,
+    // Bookkeeping to bound the number of events that are dispatched to `exec`,
+    // but not yet handled. When the bound is exceeded, the generation is
+    // bumped (so the pending batches are dropped when they run), and a single
+    // synthetic overflow is dispatched instead.
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicBoolean pendingOverflow = new AtomicBoolean();
+
+    // Batch of flyweight events that can be reused by the next dispatch (if
+    // any). Concurrent dispatches (rare) take a new batch.
+    private final AtomicReference<@Nullable FlyweightBatch> spareBatch = new AtomicReference<>();
+
+    private static final List<java.nio.file.WatchEvent<?>> SYNTHETIC_OVERFLOW = List.of(new java.nio.file.WatchEvent<Object>() {
+        @Override
+        public Kind<Object> kind() {
+            return StandardWatchEventKinds.OVERFLOW;
+        }
+
+        @Override
+        public int count() {
+            return 1;
+        }
+
+        @Override
+        public @Nullable Object context() {
+            return null;
+        }
+    });
+
+    public JDKDirectoryWatch(Path directory, JDKPoller poller, Executor exec,
+            BiConsumer<EventHandlingWatch, List<WatchEvent>> eventHandler,
             Predicate<WatchEvent> eventFilter) {
 
-        this(directory, exec, eventHandler, eventFilter, false);
+        this(directory, poller, exec, eventHandler, eventFilter, false, WatchFilter.all());
     }
 
-    public JDKDirectoryWatch(Path directory, Executor exec,
-            BiConsumer<EventHandlingWatch, WatchEvent> eventHandler,
-            Predicate<WatchEvent> eventFilter, boolean nativeRecursive) {
+    /**
+     * @param filter the declarative filter of the watch, which is pushed down:
+     * this watch registers only for the kinds of events that it accepts, and
+     * it drops events that it certainly rejects before they are translated.
+     * Events that pass still need to be filtered downstream.
+     */
+    public JDKDirectoryWatch(Path directory, JDKPoller poller, Executor exec,
+            BiConsumer<EventHandlingWatch, List<WatchEvent>> eventHandler,
+            Predicate<WatchEvent> eventFilter, boolean nativeRecursive, WatchFilter filter) {
 
         super(directory, exec, eventHandler, eventFilter);
+        this.poller = poller;
         this.nativeRecursive = nativeRecursive;
+        this.filter = filter;
     }
 
     public boolean isClosed() {
         return closed;
     }
 
-    private void handleJDKEvents(List<java.nio.file.WatchEvent<?>> events) {
+    /**
+     * @return The root of the subtree that the path of this watch belongs to,
+     * used to group related kernel registrations (see {@link SubscriptionKey}).
+     * By default, it's the path of this watch.
+     */
+    protected Path getSubtree() {
+        return path;
+    }
+
+    /**
+     * @return The kinds of events to register for with the OS. By default,
+     * the kinds that are accepted by the filter of this watch. Overflows are
+     * always reported.
+     */
+    protected Set<WatchEvent.Kind> getKernelKinds() {
+        return filter.getKinds();
+    }
+
+    /**
+     * @return {@code false} when an event of kind `kind` for `child` (relative
+     * to the path of this watch) can be dropped before it is translated. By
+     * default, only overflows (which are needed to rescan) and events that
+     * might be accepted by the filter of this watch are kept.
+     */
+    protected boolean mightPass(WatchEvent.Kind kind, @Nullable Path child) {
+        return kind == WatchEvent.Kind.OVERFLOW
+            || filter.mightAccept(kind, EMPTY_PATH, child);
+    }
+
+    private boolean mightPass(SharedEventBatch batch, int index) {
+        return mightPass(batch.kind(index), batch.child(index));
+    }
+
+    private boolean anyMightPass(SharedEventBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                if (mightPass(batch, i)) {
+                    return true;
+                }
+            }
+            catch (Throwable ignored) {
+                // Reported when the batch is dispatched (if ever)
+            }
+        }
+        return false;
+    }
+
+    // Package-private for benchmarking
+    void handleBundledEvents(SharedEventBatch batch) {
+        // The batch is shared with the other watches for the same path, so
+        // drop it early (without scheduling any work) when none of its events
+        // are relevant for this watch
+        if (!anyMightPass(batch)) {
+            return;
+        }
+        var size = batch.size();
+        if (pendingEvents.addAndGet(size) > poller.getMaxPendingEvents()) {
+            pendingEvents.addAndGet(-size);
+            collapseToOverflow();
+            return;
+        }
+        var expectedGeneration = generation.get();
         exec.execute(() -> {
-            for (var ev : events) {
+            try {
+                if (generation.get() == expectedGeneration) {
+                    dispatch(batch);
+                }
+            } finally {
+                pendingEvents.addAndGet(-size);
+            }
+        });
+    }
+
+    private void collapseToOverflow() {
+        generation.incrementAndGet();
+        if (pendingOverflow.compareAndSet(false, true)) {
+            logger.debug("Too many pending events for {}, collapsing them into an overflow", path);
+            exec.execute(() -> {
+                pendingOverflow.set(false);
+                dispatch(SharedEventBatch.synthetic(path, SYNTHETIC_OVERFLOW));
+            });
+        }
+    }
+
+    private void dispatch(SharedEventBatch batch) {
+        if (poller.usesFlyweightEvents()) {
+            dispatchFlyweights(batch);
+            return;
+        }
+        var translated = new ArrayList<WatchEvent>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                if (mightPass(batch, i)) {
+                    translated.add(translate(batch, i));
+                }
+            }
+            catch (Throwable ignored) {
+                logger.error("Ignoring untranslatable event:", ignored);
+            }
+        }
+        try {
+            handleEvents(translated);
+        }
+        catch (Throwable ignored) {
+            logger.error("Ignoring downstream exception:", ignored);
+        }
+    }
+
+    private void dispatchFlyweights(SharedEventBatch events) {
+        var batch = spareBatch.getAndSet(null);
+        if (batch == null) {
+            batch = new FlyweightBatch();
+        }
+        try {
+            for (int i = 0; i < events.size(); i++) {
+                var slot = batch.next();
                 try {
-                    handleEvent(translate(ev));
+                    if (mightPass(events, i)) {
+                        translate(events, i, slot);
+                    } else {
+                        batch.discardLast();
+                    }
                 }
                 catch (Throwable ignored) {
-                    logger.error("Ignoring downstream exception:", ignored);
+                    batch.discardLast();
+                    logger.error("Ignoring untranslatable event:", ignored);
                 }
             }
-        });
+            try {
+                handleEvents(batch);
+            }
+            catch (Throwable ignored) {
+                logger.error("Ignoring downstream exception:", ignored);
+            }
+        } finally {
+            batch.clear();
+            spareBatch.set(batch);
+        }
     }
 
     // -- JDKBaseWatch --
@@ -93,25 +266,32 @@ public class JDKDirectoryWatch extends JDKBaseWatch {
     }
 
     @Override
-    public void handleEvent(WatchEvent e) {
+    public void handleEvents(List<WatchEvent> events) {
         if (!closed) {
-            super.handleEvent(e);
+            super.handleEvents(events);
         }
     }
 
     @Override
     public synchronized void close() throws IOException {
-        if (!closed && bundledJDKWatcher != null) {
+        if (!closed) {
             logger.trace("Closing watch for: {}", this.path);
             closed = true;
-            bundledJDKWatcher.close();
+            if (bundledJDKWatcher != null) {
+                bundledJDKWatcher.close();
+            }
         }
     }
 
     @Override
     protected synchronized void start() throws IOException {
         assert bundledJDKWatcher == null;
-        var key = new SubscriptionKey(path, nativeRecursive);
-        bundledJDKWatcher = BUNDLED_JDK_WATCHERS.subscribe(key, this::handleJDKEvents);
+        if (!closed) {
+            bundledJDKWatcher = poller.subscribe(newSubscriptionKey(), this::handleBundledEvents);
+        }
+    }
+
+    private SubscriptionKey newSubscriptionKey() {
+        return new SubscriptionKey(path, nativeRecursive, getSubtree(), getKernelKinds());
     }
 }
@@ -30,14 +30,27 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import java.util.function.Function;
 import java.util.function.Predicate;
 
 import org.apache.logging.log4j.LogManager;
@@ -45,208 +58,958 @@ import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchFilter;
 import engineering.swat.watch.WatchScope;
 import engineering.swat.watch.impl.EventHandlingWatch;
+import engineering.swat.watch.impl.util.KeyedSerialExecutor;
+import engineering.swat.watch.impl.util.SubscriptionKey;
 
+/**
+ * Simulation of a recursive watch, for platforms without native support, by
+ * registering each directory of the tree with the OS. All directories are
+ * kept in a single, compact {@link DirectoryTree} (instead of in a watch
+ * object per directory). The events of each directory are handled on their
+ * own lane of the executor, by a lightweight {@link DirectoryView} of the
+ * directory. The tree is discovered and registered in parallel, by a
+ * fork-join traversal. An overflow in a directory is handled by a single
+ * rescan of its whole subtree (see {@link #rescanSubtree}).
+ *
+ * When directories can't be registered with the OS (e.g., when the limit of
+ * inotify watches on Linux is reached), they're scanned periodically
+ * instead, using a {@link MtimeIndex}. Scanned directories are registered
+ * again (shallowest first) as soon as the OS accepts registrations again.
+ */
 public class JDKFileTreeWatch extends JDKBaseWatch {
-    private final Logger logger = LogManager.getLogger();
-    private final Path rootPath;
-    private final Path relativePathParent;
-    private final Map<Path, JDKFileTreeWatch> childWatches = new ConcurrentHashMap<>();
-    private final JDKDirectoryWatch internal;
-
-    public JDKFileTreeWatch(Path fullPath, Executor exec,
-            BiConsumer<EventHandlingWatch, WatchEvent> eventHandler,
-            Predicate<WatchEvent> eventFilter) {
-
-        this(fullPath, Path.of(""), exec, eventHandler, eventFilter);
-    }
-
-    public JDKFileTreeWatch(Path rootPath, Path relativePathParent, Executor exec,
-            BiConsumer<EventHandlingWatch, WatchEvent> eventHandler,
-            Predicate<WatchEvent> eventFilter) {
-
-        super(rootPath.resolve(relativePathParent), exec, eventHandler, eventFilter);
-        this.rootPath = rootPath;
-        this.relativePathParent = relativePathParent;
-
-        var internalEventHandler = eventHandler.andThen(new AsyncChildWatchesUpdater());
-        this.internal = new JDKDirectoryWatch(path, exec, internalEventHandler, eventFilter) {
-
-            // Override to ensure that this watch relativizes events wrt
-            // `rootPath` (instead of `path`, as is the default behavior)
-            @Override
-            public WatchEvent relativize(WatchEvent event) {
-                // Assumption: The parent of the full path of `event` and the
-                // path of this watch are the same, so we only need to append
-                // the file name of `event` to relativize.
-                assert Objects.equals(
-                    event.calculateFullPath().getParent(),
-                    rootPath.resolve(relativePathParent));
-
-                var fileName = event.getFileName();
-                return new WatchEvent(event.getKind(), rootPath,
-                    fileName == null ? relativePathParent : relativePathParent.resolve(fileName));
-            }
-
-            // Override to ensure that this watch translates JDK events using
-            // `rootPath` (instead of `path`, as is the default behavior).
-            // Events returned by this method do not need to be relativized.
-            @Override
-            protected WatchEvent translate(java.nio.file.WatchEvent<?> jdkEvent) {
-                var kind = translate(jdkEvent.kind());
-
-                Path relativePath = null;
-                if (kind != WatchEvent.Kind.OVERFLOW) {
-                    var child = (Path) jdkEvent.context();
-                    if (child != null) {
-                        relativePath = relativePathParent.resolve(child);
-                    }
-                }
+    private static final Logger logger = LogManager.getLogger();
+    private static final Path EMPTY_PATH = Path.of("");
+    public static final Duration DEFAULT_SCAN_INTERVAL = Duration.ofSeconds(2);
+    private static final int MAX_PROMOTIONS_PER_ROUND = 256;
 
-                var event = new WatchEvent(kind, rootPath, relativePath);
-                logger.trace("Translated: {} to {}", jdkEvent, event);
-                return event;
-            }
-        };
+    private final JDKPoller poller;
+    private final WatchFilter filter;
+    private final ForkJoinPool starter;
+    private final Duration scanInterval;
+    private final Set<WatchEvent.Kind> kernelKinds;
+    private final DirectoryTree tree = new DirectoryTree(); // Guarded by itself
+    private volatile boolean closed = false;
+
+    // When the OS refused a registration, new directories are scanned right
+    // away (instead of each failing to register first), until a scanned
+    // directory is successfully registered again
+    private volatile boolean kernelExhausted = false;
+    private final AtomicBoolean scanRoundScheduled = new AtomicBoolean();
+
+    // Nodes whose subtrees are being rescanned after an overflow (until the
+    // events in the subtree have been approximated). Overflows in these
+    // subtrees are suppressed in the meantime.
+    private final Map<Integer, SubtreeRescan> rescanning = new HashMap<>(); // Guarded by `tree`
+
+    // Bookkeeping to bound the number of events that are dispatched to `exec`,
+    // but not yet handled, for the whole tree (see `JDKDirectoryWatch`). When
+    // the bound is exceeded, a single synthetic overflow is dispatched for the
+    // root directory, which is propagated to all other directories.
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicBoolean pendingOverflow = new AtomicBoolean();
+    private final AtomicReference<@Nullable FlyweightBatch> spareBatch = new AtomicReference<>();
+
+    public JDKFileTreeWatch(Path fullPath, JDKPoller poller, Executor exec,
+            BiConsumer<EventHandlingWatch, List<WatchEvent>> eventHandler,
+            Predicate<WatchEvent> eventFilter, WatchFilter filter) {
+
+        this(fullPath, poller, exec, eventHandler, eventFilter, filter, ForkJoinPool.commonPool(), DEFAULT_SCAN_INTERVAL);
     }
 
     /**
-     * Event handler that asynchronously (using {@link JDKBaseWatch#exec})
-     * updates the child watches according to the following rules: (a) when an
-     * overflow happens, the directory is rescanned, new child watches for
-     * created subdirectories are opened, existing child watches for deleted
-     * subdirectories are closed, and the overflow is propagated to each child
-     * watch; (b) when a subdirectory creation happens, a new child watch is
-     * opened for that subdirectory; (c) when a subdirectory deletion happens,
-     * an existing child watch is closed for that subdirectory.
+     * @param starter the pool in which the directories of the tree are
+     * discovered and registered (in parallel), and in which directories that
+     * can't be registered with the OS are scanned
+     * @param scanInterval the time between scans of directories that can't
+     * be registered with the OS
      */
-    private class AsyncChildWatchesUpdater implements BiConsumer<EventHandlingWatch, WatchEvent> {
+    public JDKFileTreeWatch(Path fullPath, JDKPoller poller, Executor exec,
+            BiConsumer<EventHandlingWatch, List<WatchEvent>> eventHandler,
+            Predicate<WatchEvent> eventFilter, WatchFilter filter, ForkJoinPool starter, Duration scanInterval) {
+
+        super(fullPath, exec, eventHandler, eventFilter);
+        this.poller = poller;
+        this.filter = filter;
+        this.starter = starter;
+        this.scanInterval = scanInterval;
+
+        // Creations and deletions are always needed to update the tree
+        var kinds = EnumSet.of(WatchEvent.Kind.CREATED, WatchEvent.Kind.DELETED);
+        kinds.addAll(filter.getKinds());
+        this.kernelKinds = kinds;
+    }
+
+    /**
+     * View of a directory in the tree, which handles the events of that
+     * directory in the same way as a {@link JDKDirectoryWatch} for it would,
+     * except that events are relativized against the root of the tree. Views
+     * are cheap to create, and they don't need to be retained: a view of a
+     * directory that has been removed from the tree (or recreated) ignores
+     * events.
+     *
+     * A recursive view (see {@link #asSubtree}) covers the whole subtree of
+     * the directory instead. It's used only to hand the overflow of a subtree
+     * rescan to the event handler, so it doesn't update the tree, and it
+     * keeps the rescan going until the events in the subtree have been
+     * approximated (see {@link #startRescan}).
+     */
+    private class DirectoryView implements EventHandlingWatch {
+        private final int node;
+        private final int nodeGeneration;
+        private final Path fullPath;
+        private final Path relativePath;
+        private final boolean recursive;
+        private final @Nullable SubtreeRescan rescan;
+        private @Nullable Path subtree;
+
+        private DirectoryView(int node, int nodeGeneration, Path fullPath, Path relativePath, @Nullable Path subtree) {
+            this(node, nodeGeneration, fullPath, relativePath, subtree, false, null);
+        }
+
+        private DirectoryView(int node, int nodeGeneration, Path fullPath, Path relativePath, @Nullable Path subtree,
+                boolean recursive, @Nullable SubtreeRescan rescan) {
+            this.node = node;
+            this.nodeGeneration = nodeGeneration;
+            this.fullPath = fullPath;
+            this.relativePath = relativePath;
+            this.subtree = subtree;
+            this.recursive = recursive;
+            this.rescan = rescan;
+        }
+
+        private DirectoryView asSubtree(SubtreeRescan rescan) {
+            return new DirectoryView(node, nodeGeneration, fullPath, relativePath, subtree, true, rescan);
+        }
+
+        private DirectoryView child(int childNode, int childGeneration, Path name) {
+            var childPath = fullPath.resolve(name);
+            return node == DirectoryTree.ROOT
+                ? new DirectoryView(childNode, childGeneration, childPath, name, childPath)
+                : new DirectoryView(childNode, childGeneration, childPath, relativePath.resolve(name), subtree());
+        }
+
+        /**
+         * @return The path of the child of the root that this directory
+         * belongs to, used to group related kernel registrations (see
+         * {@link SubscriptionKey})
+         */
+        private Path subtree() {
+            var result = subtree;
+            if (result == null) {
+                result = rootPath().resolve(relativePath.getName(0));
+                subtree = result;
+            }
+            return result;
+        }
+
+        private Executor lane() {
+            return KeyedSerialExecutor.laneFor(exec, fullPath);
+        }
+
+        private boolean isLive() {
+            if (closed) {
+                return false;
+            }
+            synchronized (tree) {
+                return tree.isLive(node, nodeGeneration);
+            }
+        }
+
+        private void reportOverflow() {
+            handleEvent(new WatchEvent(WatchEvent.Kind.OVERFLOW, rootPath(), relativePath));
+        }
+
+        // -- EventHandlingWatch --
+
         @Override
-        public void accept(EventHandlingWatch watch, WatchEvent event) {
-            exec.execute(() -> {
-                switch (event.getKind()) {
-                    case OVERFLOW: acceptOverflow(); break;
-                    case CREATED: getFileNameAndThen(event, this::acceptCreated); break;
-                    case DELETED: getFileNameAndThen(event, this::acceptDeleted); break;
-                    case MODIFIED: break;
+        public Path getPath() {
+            return fullPath;
+        }
+
+        @Override
+        public WatchScope getScope() {
+            return recursive ? WatchScope.PATH_AND_ALL_DESCENDANTS : WatchScope.PATH_AND_CHILDREN;
+        }
+
+        @Override
+        public void handleEvent(WatchEvent event) {
+            handleEvents(List.of(event));
+        }
+
+        @Override
+        public void handleEvents(List<WatchEvent> events) {
+            if (!isLive()) {
+                return;
+            }
+            var filtered = filter(events);
+            if (filtered.isEmpty()) {
+                return;
+            }
+            if (recursive) {
+                eventHandler.accept(this, filtered);
+                return;
+            }
+            // Overflows are handed to the event handler by the rescan of the
+            // subtree (instead of right away)
+            var handled = withoutOverflows(filtered);
+            if (!handled.isEmpty()) {
+                eventHandler.accept(this, handled);
+            }
+            updateTree(this, filtered);
+        }
+
+        @Override
+        public Runnable startRescan() {
+            var r = rescan;
+            if (r == null) {
+                return () -> {};
+            }
+            r.retain();
+            return r::release;
+        }
+
+        @Override
+        public WatchEvent relativize(WatchEvent event) {
+            var root = rootPath();
+            return new WatchEvent(event.getKind(), root, root.relativize(event.calculateFullPath()), event);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (node == DirectoryTree.ROOT) {
+                JDKFileTreeWatch.this.close();
+            } else {
+                var removed = new ArrayList<Closeable>();
+                synchronized (tree) {
+                    if (tree.isLive(node, nodeGeneration)) {
+                        tree.remove(node, removed);
+                    }
                 }
+                closeAll(removed);
+            }
+        }
+    }
+
+    private Path rootPath() {
+        return path;
+    }
+
+    private DirectoryView rootView() {
+        return new DirectoryView(DirectoryTree.ROOT, 0, path, EMPTY_PATH, path);
+    }
+
+    // -- Event handling --
+
+    private static List<WatchEvent> withoutOverflows(List<WatchEvent> events) {
+        if (events.stream().noneMatch(e -> e.getKind() == WatchEvent.Kind.OVERFLOW)) {
+            return events;
+        }
+        var result = new ArrayList<WatchEvent>(events.size());
+        for (var event : events) {
+            if (event.getKind() != WatchEvent.Kind.OVERFLOW) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    private boolean mightPass(WatchEvent.Kind kind, Path relativePathParent, @Nullable Path child) {
+        // Only modifications are dropped early: overflows, creations, and
+        // deletions are needed to update the tree
+        return kind != WatchEvent.Kind.MODIFIED || filter.mightAccept(kind, relativePathParent, child);
+    }
+
+    private boolean anyMightPass(SharedEventBatch batch, Path relativePathParent) {
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                if (mightPass(batch.kind(i), relativePathParent, batch.child(i))) {
+                    return true;
+                }
+            }
+            catch (Throwable ignored) {
+                // Reported when the batch is dispatched (if ever)
+            }
+        }
+        return false;
+    }
+
+    private Consumer<SharedEventBatch> newBundledEventsHandler(int node, int nodeGeneration) {
+        return batch -> handleBundledEvents(node, nodeGeneration, batch);
+    }
+
+    private void handleBundledEvents(int node, int nodeGeneration, SharedEventBatch batch) {
+        var fullPath = batch.getPath();
+        var relativePath = rootPath().relativize(fullPath);
+        if (!anyMightPass(batch, relativePath)) {
+            return;
+        }
+        var size = batch.size();
+        if (pendingEvents.addAndGet(size) > poller.getMaxPendingEvents()) {
+            pendingEvents.addAndGet(-size);
+            collapseToOverflow();
+            return;
+        }
+        var expectedGeneration = generation.get();
+        var view = new DirectoryView(node, nodeGeneration, fullPath, relativePath, node == DirectoryTree.ROOT ? path : null);
+        view.lane().execute(() -> {
+            try {
+                if (generation.get() == expectedGeneration) {
+                    dispatch(view, batch);
+                }
+            } finally {
+                pendingEvents.addAndGet(-size);
+            }
+        });
+    }
+
+    private void collapseToOverflow() {
+        generation.incrementAndGet();
+        if (pendingOverflow.compareAndSet(false, true)) {
+            logger.debug("Too many pending events for {}, collapsing them into an overflow", path);
+            exec.execute(() -> {
+                pendingOverflow.set(false);
+                rootView().reportOverflow();
             });
         }
+    }
 
-        private void getFileNameAndThen(WatchEvent event, Consumer<Path> consumer) {
-            var child = event.getFileName();
-            if (child != null) {
-                consumer.accept(child);
+    private WatchEvent translate(DirectoryView view, SharedEventBatch batch, int index) {
+        if (view.node == DirectoryTree.ROOT) {
+            return batch.get(index);
+        }
+        var child = batch.child(index);
+        return new WatchEvent(batch.kind(index), rootPath(),
+            child == null ? null : view.relativePath.resolve(child),
+            batch.getSource(), batch.sequence(index), batch.getTimestamp());
+    }
+
+    private void dispatch(DirectoryView view, SharedEventBatch batch) {
+        if (poller.usesFlyweightEvents()) {
+            dispatchFlyweights(view, batch);
+            return;
+        }
+        var translated = new ArrayList<WatchEvent>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                if (mightPass(batch.kind(i), view.relativePath, batch.child(i))) {
+                    translated.add(translate(view, batch, i));
+                }
+            }
+            catch (Throwable ignored) {
+                logger.error("Ignoring untranslatable event:", ignored);
+            }
+        }
+        try {
+            view.handleEvents(translated);
+        }
+        catch (Throwable ignored) {
+            logger.error("Ignoring downstream exception:", ignored);
+        }
+    }
+
+    private void dispatchFlyweights(DirectoryView view, SharedEventBatch events) {
+        var batch = spareBatch.getAndSet(null);
+        if (batch == null) {
+            batch = new FlyweightBatch();
+        }
+        try {
+            for (int i = 0; i < events.size(); i++) {
+                var slot = batch.next();
+                try {
+                    if (mightPass(events.kind(i), view.relativePath, events.child(i))) {
+                        slot.set(events, i, rootPath(), view.relativePath);
+                    } else {
+                        batch.discardLast();
+                    }
+                }
+                catch (Throwable ignored) {
+                    batch.discardLast();
+                    logger.error("Ignoring untranslatable event:", ignored);
+                }
+            }
+            try {
+                view.handleEvents(batch);
+            }
+            catch (Throwable ignored) {
+                logger.error("Ignoring downstream exception:", ignored);
+            }
+        } finally {
+            batch.clear();
+            spareBatch.set(batch);
+        }
+    }
+
+    // -- Tree maintenance --
+
+    /**
+     * Asynchronously (using the lane of `view`) updates the tree according to
+     * the following rules: (a) when an overflow happens, the subtree of the
+     * directory is rescanned (see {@link #rescanSubtree}), which makes the
+     * other events of the batch redundant; (b) when a subdirectory creation
+     * happens, it's added (and its subtree is rescanned); (c) when a
+     * subdirectory deletion happens, it's removed.
+     */
+    private void updateTree(DirectoryView view, List<WatchEvent> events) {
+        // Most batches consist of modifications only, which don't affect the
+        // tree, so only schedule work when needed
+        if (events.stream().allMatch(e -> e.getKind() == WatchEvent.Kind.MODIFIED)) {
+            return;
+        }
+        // The events may be flyweights, so copy them to retain them
+        var retained = new ArrayList<WatchEvent>(events.size());
+        for (var event : events) {
+            retained.add(event.copy());
+        }
+        view.lane().execute(() -> {
+            // A single rescan suffices, even if the batch has multiple overflows
+            if (retained.stream().anyMatch(e -> e.getKind() == WatchEvent.Kind.OVERFLOW)) {
+                rescanSubtree(view, false);
+                return;
+            }
+            for (var event : retained) {
+                var kind = event.getKind();
+                if (kind != WatchEvent.Kind.MODIFIED) {
+                    var child = event.getFileName();
+                    if (child == null) {
+                        logger.error("Could not get file name of event: {}", event);
+                    } else if (kind == WatchEvent.Kind.CREATED) {
+                        acceptCreated(view, child);
+                    } else {
+                        acceptDeleted(view, child);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Rescans the subtree of `view` as a whole: first, the tree is reconciled
+     * with the file system by a single traversal of the subtree (which
+     * registers new directories, or only `view` and its subdirectories if
+     * `unregistered`); next, a single overflow for the whole subtree is handed
+     * to the event handler, so the events in the subtree are approximated by
+     * a single rescan (instead of one per directory). Overflows in the
+     * subtree that happen before that rescan has completed are suppressed, as
+     * the rescan happens after them.
+     */
+    private void rescanSubtree(DirectoryView view, boolean unregistered) {
+        var rescan = beginRescan(view);
+        if (rescan == null) {
+            logger.debug("Suppressing overflow in: {} (its subtree is being rescanned already)", view.fullPath);
+            return;
+        }
+        try {
+            if (unregistered) {
+                register(List.of(view));
             } else {
-                logger.error("Could not get file name of event: {}", event);
+                traverse(List.of(new SubtreeTask(view, true)));
             }
+            view.asSubtree(rescan).reportOverflow();
+        } finally {
+            // When the event handler has a rescanner, it has started the
+            // rescan by now, which keeps the subtree marked until it's done
+            rescan.release();
         }
+    }
 
-        private void acceptOverflow() {
-            syncChildWatchesWithFileSystem();
-            for (var childWatch : childWatches.values()) {
-                reportOverflowTo(childWatch);
+    /**
+     * @return The rescan of `view`, if neither `view` nor any of its
+     * ancestors is being rescanned already, or `null` otherwise
+     */
+    private @Nullable SubtreeRescan beginRescan(DirectoryView view) {
+        synchronized (tree) {
+            if (closed || !tree.isLive(view.node, view.nodeGeneration)) {
+                return null;
+            }
+            for (var n = view.node; n != DirectoryTree.NONE; n = tree.parent(n)) {
+                var r = rescanning.get(n);
+                if (r != null && r.generation == tree.generation(n)) {
+                    return null;
+                }
             }
+            var result = new SubtreeRescan(view.node, view.nodeGeneration);
+            rescanning.put(view.node, result);
+            return result;
         }
+    }
 
-        private void acceptCreated(Path child) {
-            if (Files.isDirectory(path.resolve(child))) {
-                var childWatch = openChildWatch(child);
-                // Events in the newly created directory might have been missed
-                // between its creation and setting up its watch. So, generate
-                // an `OVERFLOW` event for the watch.
-                if (childWatch != null) {
-                    reportOverflowTo(childWatch);
+    /**
+     * Rescan of the subtree of a node, which ends when both the traversal of
+     * the subtree and the rescans started by the event handler (see
+     * {@link DirectoryView#startRescan}) have completed
+     */
+    private class SubtreeRescan {
+        private final int node;
+        private final int generation;
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        private SubtreeRescan(int node, int generation) {
+            this.node = node;
+            this.generation = generation;
+        }
+
+        private void retain() {
+            pending.incrementAndGet();
+        }
+
+        private void release() {
+            if (pending.decrementAndGet() == 0) {
+                synchronized (tree) {
+                    rescanning.remove(node, this);
                 }
             }
         }
+    }
 
-        private void acceptDeleted(Path child) {
-            tryCloseChildWatch(child);
+    private void acceptCreated(DirectoryView view, Path child) {
+        if (!Files.isDirectory(view.fullPath.resolve(child)) || filter.excludesDescendants(view.relativePath, child)) {
+            return;
         }
+        DirectoryView childView;
+        boolean added;
+        synchronized (tree) {
+            if (closed || !tree.isLive(view.node, view.nodeGeneration)) {
+                return;
+            }
+            var size = tree.size();
+            var childNode = tree.add(view.node, child);
+            added = tree.size() > size;
+            childView = view.child(childNode, tree.generation(childNode), child);
+        }
+        // Events in the newly created directory might have been missed
+        // between its creation and its registration. So, rescan it.
+        rescanSubtree(childView, added);
+    }
 
-        private void reportOverflowTo(JDKFileTreeWatch childWatch) {
-            var overflow = new WatchEvent(WatchEvent.Kind.OVERFLOW,
-                childWatch.rootPath, childWatch.relativePathParent);
-            childWatch.handleEvent(overflow);
+    private void acceptDeleted(DirectoryView view, Path child) {
+        var removed = new ArrayList<Closeable>();
+        synchronized (tree) {
+            if (tree.isLive(view.node, view.nodeGeneration)) {
+                var childNode = tree.find(view.node, child);
+                if (childNode != DirectoryTree.NONE) {
+                    tree.remove(childNode, removed);
+                }
+            }
         }
+        closeAll(removed);
     }
 
-    private void syncChildWatchesWithFileSystem() {
-        var toBeClosed = new HashSet<>(childWatches.keySet());
+    private List<DirectoryView> children(DirectoryView view) {
+        var result = new ArrayList<DirectoryView>();
+        synchronized (tree) {
+            if (tree.isLive(view.node, view.nodeGeneration)) {
+                for (var c : tree.children(view.node)) {
+                    result.add(view.child(c, tree.generation(c), tree.name(c)));
+                }
+            }
+        }
+        return result;
+    }
 
-        try (var children = Files.find(path, 1, (p, attrs) -> p != path && attrs.isDirectory())) {
+    /**
+     * Synchronizes the children of `view` in the tree with its subdirectories
+     * in the file system: new subdirectories are added (but not registered),
+     * and deleted subdirectories are removed. Subdirectories whose contents
+     * are rejected by the filter (e.g., beyond its maximum depth) are not
+     * added.
+     *
+     * @return The views of the added subdirectories, which still need to be
+     * registered
+     */
+    private List<DirectoryView> syncChildren(DirectoryView view) {
+        var subdirectories = new HashSet<Path>();
+        try (var children = Files.find(view.fullPath, 1, (p, attrs) -> p != view.fullPath && attrs.isDirectory())) {
             children.forEach(p -> {
                 var child = p.getFileName();
-                if (child != null) {
-                    toBeClosed.remove(child);
-                    openChildWatch(child);
-                } else {
-                    logger.error("File tree watch (for: {}) could not open a child watch for: {}", path, p);
+                if (child == null) {
+                    logger.error("File tree watch (for: {}) could not add a subdirectory: {}", path, p);
+                } else if (!filter.excludesDescendants(view.relativePath, child)) {
+                    subdirectories.add(child);
                 }
             });
         } catch (IOException e) {
-            logger.error("File tree watch (for: {}) could not iterate over its children ({})", path, e);
+            logger.error("File tree watch (for: {}) could not iterate over the children of: {} ({})", path, view.fullPath, e);
         }
 
-        for (var child : toBeClosed) {
-            tryCloseChildWatch(child);
+        var added = new ArrayList<DirectoryView>();
+        var removed = new ArrayList<Closeable>();
+        synchronized (tree) {
+            if (closed || !tree.isLive(view.node, view.nodeGeneration)) {
+                return added;
+            }
+            for (var c : tree.children(view.node)) {
+                if (!subdirectories.remove(tree.name(c))) {
+                    tree.remove(c, removed);
+                }
+            }
+            for (var child : subdirectories) {
+                var childNode = tree.add(view.node, child);
+                added.add(view.child(childNode, tree.generation(childNode), child));
+            }
         }
+        closeAll(removed);
+        return added;
     }
 
     /**
-     * @return A child watch for {@code child} when the parent watch is still
-     * open, or {@code null} when it is already closed.
+     * Registers the given directories (and all their subdirectories). First,
+     * all given directories are registered at once (such that their kernel
+     * registrations are pipelined). Next, the subtree of each of them is
+     * traversed in parallel (see {@link SubtreeTask}).
      */
-    private @Nullable JDKFileTreeWatch openChildWatch(Path child) {
-        assert !child.isAbsolute();
-
-        Function<Path, JDKFileTreeWatch> newChildWatch = p -> new JDKFileTreeWatch(
-            rootPath, relativePathParent.resolve(child), exec, eventHandler, eventFilter);
-        var childWatch = childWatches.computeIfAbsent(child, newChildWatch);
-
-        // The following may have happened at this point:
-        //  1. Thread A: Reads `closed` at the beginning of an event handler,
-        //     sees it's `false`, runs the event handler, and reaches the
-        //     beginning of this method (but doesn't execute it yet).
-        //  2. Thread B: Writes `true` to `closed`, gets all child watches from
-        //     the map, and closes them.
-        //  3. Thread A: Creates a new child watch and puts it into the map.
-        //
-        // Without additional synchronization, which is costly, there will
-        // always be a small window between the end of (1) and the beginning of
-        // (2) that causes a "dangling" child watch to remain open when the
-        // parent watch is closed. To mitigate this, after optimistically
-        // putting a child watch into the map, we immediately close it when
-        // needed.
-        if (internal.isClosed()) {
-            tryClose(childWatch);
-            return null;
+    private void register(List<DirectoryView> directories) {
+        if (directories.isEmpty()) {
+            return;
         }
+        var tasks = new ArrayList<SubtreeTask>();
+        for (var d : registerAll(directories)) {
+            tasks.add(new SubtreeTask(d, false));
+        }
+        traverse(tasks);
+    }
 
+    private void traverse(List<SubtreeTask> tasks) {
         try {
-            childWatch.startIfFirstTime();
-        } catch (IOException e) {
-            logger.error("Could not open (nested) file tree watch for: {} ({})", child, e);
+            starter.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.error("Could not traverse the subdirectories of: {} ({})", path, e);
+        }
+    }
+
+    /**
+     * Fork-join task that traverses the subtree of a watched directory:
+     * first, the subdirectories are listed (and deleted ones are removed);
+     * next, new ones are registered at once; next, the subtree of each of
+     * them is traversed by a subtask (in parallel). Each directory is still
+     * registered before it is listed, so directories that are created during
+     * the traversal are either listed or reported by a `CREATED` event. When
+     * reconciling (after an overflow), the subtrees of the subdirectories
+     * that were already in the tree are traversed as well.
+     */
+    private class SubtreeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient DirectoryView directory;
+        private final boolean reconcile;
+
+        private SubtreeTask(DirectoryView directory, boolean reconcile) {
+            this.directory = directory;
+            this.reconcile = reconcile;
+        }
+
+        @Override
+        protected void compute() {
+            var added = syncChildren(directory);
+            var next = added.isEmpty() ? added : registerAll(added);
+            if (reconcile) {
+                var addedNodes = new HashSet<Integer>();
+                for (var a : added) {
+                    addedNodes.add(a.node);
+                }
+                var existing = children(directory);
+                existing.removeIf(c -> addedNodes.contains(c.node));
+                existing.addAll(next);
+                next = existing;
+            }
+            if (next.isEmpty()) {
+                return;
+            }
+            var subtasks = new ArrayList<SubtreeTask>(next.size());
+            for (var c : next) {
+                subtasks.add(new SubtreeTask(c, reconcile));
+            }
+            invokeAll(subtasks);
         }
-        return childWatch;
     }
 
-    private void tryCloseChildWatch(Path child) {
+    /**
+     * Registers all given directories at once. If the bulk registration
+     * fails, then the directories are registered one by one instead, so a
+     * failure to register one of them doesn't affect the others. Directories
+     * that can't be registered are scanned periodically instead.
+     *
+     * @return The directories that are now watched (i.e., registered or
+     * scanned)
+     */
+    private List<DirectoryView> registerAll(List<DirectoryView> directories) {
+        if (kernelExhausted) {
+            return scanAll(directories);
+        }
+        var keys = new ArrayList<SubscriptionKey>(directories.size());
+        var handlers = new ArrayList<Consumer<SharedEventBatch>>(directories.size());
+        for (var d : directories) {
+            keys.add(newSubscriptionKey(d));
+            handlers.add(newBundledEventsHandler(d.node, d.nodeGeneration));
+        }
+
+        var result = new ArrayList<DirectoryView>(directories.size());
         try {
-            closeChildWatch(child);
+            var registrations = subscribeAll(keys, handlers);
+            for (int i = 0; i < directories.size(); i++) {
+                if (attach(directories.get(i), registrations.get(i))) {
+                    result.add(directories.get(i));
+                }
+            }
+            return result;
         } catch (IOException e) {
-            logger.error("Could not close (nested) file tree watch for: {} ({})", path.resolve(child), e);
+            logger.debug("Could not register {} directories at once, registering them one by one ({})", directories.size(), e);
         }
+
+        for (int i = 0; i < directories.size(); i++) {
+            var d = directories.get(i);
+            if (kernelExhausted) {
+                result.addAll(scanAll(directories.subList(i, directories.size())));
+                break;
+            }
+            try {
+                if (attach(d, subscribe(keys.get(i), handlers.get(i)))) {
+                    result.add(d);
+                }
+            } catch (IOException e) {
+                if (!Files.isDirectory(d.fullPath)) {
+                    logger.debug("Could not register (nested) directory: {} ({})", d.fullPath, e);
+                    continue;
+                }
+                if (!isCapacityError(e)) {
+                    // A problem with this directory (e.g., it's unreadable),
+                    // so other directories can still be registered
+                    logger.warn("Could not register (nested) directory: {} ({}). Scanning it every {} ms instead.",
+                        d.fullPath, e.getMessage(), scanInterval.toMillis());
+                    result.addAll(scanAll(List.of(d)));
+                    continue;
+                }
+                logger.warn("Could not register (nested) directory: {} ({}). Scanning it (and new directories) every {} ms instead.",
+                    d.fullPath, e.getMessage(), scanInterval.toMillis());
+                kernelExhausted = true;
+                result.addAll(scanAll(List.of(d)));
+            }
+        }
+        return result;
     }
 
-    private void closeChildWatch(Path child) throws IOException {
-        assert !child.isAbsolute();
+    /**
+     * @return Whether `e` means that the OS has no capacity left for
+     * registrations (e.g., the user limit of inotify watches or instances on
+     * Linux, reported by the JDK for ENOSPC and EMFILE), as opposed to a
+     * problem with the directory itself (e.g., that it's unreadable)
+     */
+    private static boolean isCapacityError(IOException e) {
+        var message = e.getMessage();
+        if (message == null) {
+            return false;
+        }
+        message = message.toLowerCase(Locale.ROOT);
+        return message.contains("limit") || message.contains("too many open files")
+            || message.contains("no space left");
+    }
 
-        var childWatch = childWatches.remove(child);
-        if (childWatch != null) {
-            childWatch.close();
+    // -- Scanning --
+
+    /**
+     * Directory that is scanned periodically, because it can't be registered
+     * with the OS. Instances are stored in the tree in place of registrations.
+     */
+    private class ScannedDirectory implements Closeable {
+        private final DirectoryView view;
+        private final MtimeIndex index = new MtimeIndex();
+
+        private ScannedDirectory(DirectoryView view) {
+            this.view = view;
+        }
+
+        /**
+         * Scans the directory, and reports the changes since the previous scan
+         * to its view (on its lane)
+         */
+        private void scanAndReport() {
+            var events = new ArrayList<WatchEvent>();
+            try {
+                index.scan(view.fullPath, (kind, fileName) ->
+                    events.add(new WatchEvent(kind, rootPath(), view.relativePath.resolve(fileName))));
+            } catch (IOException e) {
+                // The directory was deleted (which its parent reports), or it
+                // became unreadable
+                logger.debug("Could not scan (nested) directory: {} ({})", view.fullPath, e);
+                return;
+            }
+            if (!events.isEmpty()) {
+                view.lane().execute(() -> view.handleEvents(events));
+            }
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+    }
+
+    /**
+     * Starts to scan the given directories periodically (instead of
+     * registering them)
+     *
+     * @return The directories that are now scanned
+     */
+    private List<DirectoryView> scanAll(List<DirectoryView> directories) {
+        var result = new ArrayList<DirectoryView>(directories.size());
+        for (var d : directories) {
+            var scanned = new ScannedDirectory(d);
+            try {
+                scanned.index.scan(d.fullPath, null);
+            } catch (IOException e) {
+                logger.error("Could not watch (nested) directory: {} ({})", d.fullPath, e);
+                continue;
+            }
+            if (attach(d, scanned)) {
+                result.add(d);
+            }
+        }
+        if (!result.isEmpty()) {
+            scheduleScanRound();
+        }
+        return result;
+    }
+
+    private void scheduleScanRound() {
+        if (!closed && scanRoundScheduled.compareAndSet(false, true)) {
+            CompletableFuture
+                .delayedExecutor(scanInterval.toNanos(), TimeUnit.NANOSECONDS, starter)
+                .execute(this::scanRound);
+        }
+    }
+
+    private List<ScannedDirectory> scannedDirectories() {
+        var result = new ArrayList<ScannedDirectory>();
+        synchronized (tree) {
+            tree.forEachRegistration((r, node) -> {
+                if (r instanceof ScannedDirectory) {
+                    result.add((ScannedDirectory) r);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Scans all scanned directories once, and tries to register them again
+     * (shallowest first)
+     */
+    private void scanRound() {
+        try {
+            if (closed) {
+                return;
+            }
+            var scanned = scannedDirectories();
+            for (var s : scanned) {
+                s.scanAndReport();
+            }
+            promote(scanned);
+        } catch (Throwable t) {
+            logger.error("Could not scan the directories of: {} ({})", path, t);
+        } finally {
+            scanRoundScheduled.set(false);
+        }
+        if (!scannedDirectories().isEmpty()) {
+            scheduleScanRound();
+        }
+    }
+
+    /**
+     * Tries to register the given scanned directories with the OS again,
+     * shallowest first, until the OS refuses a registration
+     */
+    private void promote(List<ScannedDirectory> scanned) {
+        scanned.sort(Comparator.comparingInt(s -> s.view.relativePath.getNameCount()));
+        var promoted = 0;
+        for (var s : scanned) {
+            if (promoted == MAX_PROMOTIONS_PER_ROUND || closed) {
+                return;
+            }
+            var view = s.view;
+            Closeable registration;
+            try {
+                registration = subscribe(newSubscriptionKey(view),
+                    newBundledEventsHandler(view.node, view.nodeGeneration));
+            } catch (IOException e) {
+                if (isCapacityError(e)) {
+                    return; // Still no capacity
+                }
+                continue; // Still a problem with this directory
+            }
+            var replaced = false;
+            synchronized (tree) {
+                if (!closed && tree.isLive(view.node, view.nodeGeneration) && tree.getRegistration(view.node) == s) {
+                    tree.setRegistration(view.node, registration);
+                    replaced = true;
+                }
+            }
+            if (!replaced) {
+                tryClose(registration);
+                continue;
+            }
+            logger.debug("Registered (nested) directory again: {}", view.fullPath);
+            kernelExhausted = false;
+            promoted++;
+            // Report the changes between the last scan and the registration
+            s.scanAndReport();
+        }
+    }
+
+    /**
+     * @return The number of directories of the tree that are registered with
+     * the OS (index 0), and that are scanned periodically (index 1)
+     */
+    private int[] countModes() {
+        var counts = new int[2];
+        synchronized (tree) {
+            tree.forEachRegistration((r, node) -> counts[r instanceof ScannedDirectory ? 1 : 0]++);
+        }
+        return counts;
+    }
+
+    // Package-private for testing
+    Closeable subscribe(SubscriptionKey key, Consumer<SharedEventBatch> handler) throws IOException {
+        return poller.subscribe(key, handler);
+    }
+
+    // Package-private for testing
+    List<Closeable> subscribeAll(List<SubscriptionKey> keys, List<Consumer<SharedEventBatch>> handlers) throws IOException {
+        return poller.subscribeAll(keys, handlers);
+    }
+
+    private SubscriptionKey newSubscriptionKey(DirectoryView view) {
+        return new SubscriptionKey(view.fullPath, false, view.subtree(), kernelKinds);
+    }
+
+    /**
+     * Attaches `registration` to the directory of `view`, or closes it when
+     * the directory was removed (or this watch was closed) in the meantime
+     *
+     * @return `true` iff the registration was attached
+     */
+    private boolean attach(DirectoryView view, Closeable registration) {
+        synchronized (tree) {
+            if (!closed && tree.isLive(view.node, view.nodeGeneration)) {
+                tree.setRegistration(view.node, registration);
+                return true;
+            }
+        }
+        tryClose(registration);
+        return false;
+    }
+
+    private void closeAll(List<Closeable> registrations) {
+        for (var r : registrations) {
+            tryClose(r);
         }
     }
 
@@ -271,15 +1034,34 @@ public class JDKFileTreeWatch extends JDKBaseWatch {
     }
 
     @Override
-    public void handleEvent(WatchEvent event) {
-        internal.handleEvent(event);
+    public int getRegisteredDirectoryCount() {
+        return countModes()[0];
     }
 
     @Override
-    public synchronized void close() throws IOException {
-        var firstFail = tryClose(internal);
-        for (var c : childWatches.values()) {
-            var currentFail = tryClose(c);
+    public int getScannedDirectoryCount() {
+        return countModes()[1];
+    }
+
+    @Override
+    public void handleEvents(List<WatchEvent> events) {
+        rootView().handleEvents(events);
+    }
+
+    @Override
+    public void close() throws IOException {
+        var registrations = new ArrayList<Closeable>();
+        synchronized (tree) {
+            if (closed) {
+                return;
+            }
+            logger.trace("Closing watch for: {}", path);
+            closed = true;
+            tree.clear(registrations);
+        }
+        @Nullable IOException firstFail = null;
+        for (var r : registrations) {
+            var currentFail = tryClose(r);
             if (currentFail != null && firstFail == null) {
                 firstFail = currentFail;
             }
@@ -289,15 +1071,19 @@ public class JDKFileTreeWatch extends JDKBaseWatch {
         }
     }
 
-   @Override
-    protected synchronized void start() throws IOException {
-        internal.open();
-        syncChildWatchesWithFileSystem();
-        // There's no need to report an overflow event, because `internal` was
-        // opened *before* the file system was accessed to fetch children. Thus,
-        // if a new directory is created while this method is running, then at
-        // least one of the following is true: (a) the new directory is already
-        // visible by the time the file system is accessed; (b) its `CREATED`
-        // event is handled later, which starts a new child watch if needed.
+    @Override
+    protected void start() throws IOException {
+        var root = rootView();
+        var registration = subscribe(newSubscriptionKey(root),
+            newBundledEventsHandler(root.node, root.nodeGeneration));
+        if (attach(root, registration)) {
+            register(syncChildren(root));
+        }
+        // There's no need to report an overflow event, because the root was
+        // registered *before* the file system was accessed to fetch children.
+        // Thus, if a new directory is created while this method is running,
+        // then at least one of the following is true: (a) the new directory
+        // is already visible by the time the file system is accessed; (b) its
+        // `CREATED` event is handled later, which registers it if needed.
     }
 }
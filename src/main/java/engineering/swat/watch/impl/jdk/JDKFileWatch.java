@@ -28,6 +28,8 @@ package engineering.swat.watch.impl.jdk;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.function.BiConsumer;
 import java.util.function.Predicate;
@@ -37,6 +39,7 @@ import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchFilter;
 import engineering.swat.watch.WatchScope;
 import engineering.swat.watch.impl.EventHandlingWatch;
 
@@ -49,9 +52,9 @@ public class JDKFileWatch extends JDKBaseWatch {
     private final Logger logger = LogManager.getLogger();
     private final JDKBaseWatch internal;
 
-    public JDKFileWatch(Path file, Executor exec,
-            BiConsumer<EventHandlingWatch, WatchEvent> eventHandler,
-            Predicate<WatchEvent> eventFilter) {
+    public JDKFileWatch(Path file, JDKPoller poller, Executor exec,
+            BiConsumer<EventHandlingWatch, List<WatchEvent>> eventHandler,
+            Predicate<WatchEvent> eventFilter, WatchFilter filter) {
 
         super(file, exec, eventHandler, eventFilter);
 
@@ -60,16 +63,47 @@ public class JDKFileWatch extends JDKBaseWatch {
         var fileName = requireNonNull(file.getFileName(), message);
         assert !parent.equals(file);
 
-        this.internal = new JDKDirectoryWatch(parent, exec, (w, e) -> {
-            var kind = e.getKind();
-            if (kind == WatchEvent.Kind.OVERFLOW || e.getRelativePath().equals(fileName)) {
-                eventHandler.accept(w, new WatchEvent(kind, file));
+        this.internal = new JDKDirectoryWatch(parent, poller, exec, (w, events) -> {
+            var fileEvents = new ArrayList<WatchEvent>(1);
+            for (var e : events) {
+                var kind = e.getKind();
+                if (kind == WatchEvent.Kind.OVERFLOW || e.getRelativePath().equals(fileName)) {
+                    fileEvents.add(new WatchEvent(kind, file, null, e));
+                }
             }
-        }, eventFilter);
+            if (!fileEvents.isEmpty()) {
+                eventHandler.accept(w, fileEvents);
+            }
+        }, eventFilter, false, pushdown(filter, fileName));
 
         logger.debug("File watch (for: {}) is in reality a directory watch (for: {}) with a filter (for: {})", file, parent, fileName);
     }
 
+    /**
+     * @return The filter on the kinds of `filter` and on `fileName`: the
+     * paths of `filter` are relative to the watched file, not to its parent.
+     * Pushing down `fileName` ensures that the internal watch drops the events
+     * of siblings before scheduling tasks for them, which matters when many
+     * files in the same directory are watched.
+     */
+    private static WatchFilter pushdown(WatchFilter filter, Path fileName) {
+        return WatchFilter.all()
+            .withKinds(filter.getKinds().toArray(new WatchEvent.Kind[0]))
+            .withFileNames(escapeGlob(fileName.toString()));
+    }
+
+    private static String escapeGlob(String s) {
+        var result = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            var c = s.charAt(i);
+            if ("*?[]{}\\,".indexOf(c) >= 0) {
+                result.append('\\');
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
     private static Path requireNonNull(@Nullable Path p, String message) {
         if (p == null) {
             throw new IllegalArgumentException(message);
@@ -85,8 +119,8 @@ public class JDKFileWatch extends JDKBaseWatch {
     }
 
     @Override
-    public void handleEvent(WatchEvent event) {
-        internal.handleEvent(event);
+    public void handleEvents(List<WatchEvent> events) {
+        internal.handleEvents(events);
     }
 
     @Override
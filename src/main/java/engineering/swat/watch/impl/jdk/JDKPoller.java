@@ -33,135 +33,571 @@ import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.nio.file.Watchable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Consumer;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import com.sun.nio.file.ExtendedWatchEventModifier;
 
 import engineering.swat.watch.DaemonThreadPool;
 import engineering.swat.watch.impl.mac.MacWatchService;
 import engineering.swat.watch.impl.mac.NativeLibrary;
+import engineering.swat.watch.impl.util.BundledSubscription;
+import engineering.swat.watch.impl.util.ISubscribable;
 import engineering.swat.watch.impl.util.SubscriptionKey;
 
 /**
  * This class is a wrapper around the JDK WatchService, it takes care to poll the service for new events, and then distributes them to the right parties
+ *
+ * To scale the intake of kernel events, paths can be spread over multiple
+ * <i>shards</i>, each of which has its own watch service (on Linux: its own
+ * inotify queue) that is drained by its own poller thread.
+ *
+ * Each poller thread gives the signalled keys of its shard turns in a
+ * round-robin fashion, and dispatches at most a <i>budget</i> of events per
+ * turn, so a single busy directory cannot monopolize the poller.
+ *
+ * Closing the poller closes the watch services (which releases the
+ * underlying OS resources), and stops the poller threads.
  */
-class JDKPoller {
-    private JDKPoller() {}
-
+public class JDKPoller implements Closeable {
     private static final Logger logger = LogManager.getLogger();
-    private static final Map<WatchKey, Consumer<List<WatchEvent<?>>>> watchers = new ConcurrentHashMap<>();
-    private static final WatchService service;
+    private final KeyWaitStatistics statistics = new KeyWaitStatistics();
+    private final Registry registry;
+    private final int maxPendingEvents;
+    private final boolean flyweightEvents;
+
     /**
-     * We have to be a bit careful with registering too many paths in parallel
-     * Linux can be thrown into a deadlock if you try to start 1000 threads and then do a register at the same time.
+     * Joins multiple subscriptions to the same path (and recursiveness) into
+     * a single registration with the watch service. All subscribers of a
+     * registration receive the same batch, so its events are translated only
+     * once (see {@link SharedEventBatch}).
      */
-    private static final ExecutorService registerPool = DaemonThreadPool.buildConstrainedCached("JavaWatch-rate-limit-registry", Runtime.getRuntime().availableProcessors());
+    private final BundledSubscription<SubscriptionKey, SharedEventBatch> bundle;
+
+    /**
+     * @param shardCount The number of shards (i.e., watch services with their
+     * own poller thread)
+     * @param budget The maximum number of events that are dispatched per turn
+     * of a signalled key
+     * @param registerThreads The maximum number of threads that register paths
+     * with the watch services in parallel
+     * @param pollerThreads The factory of the poller threads (one per shard)
+     * @param maxPendingEvents The maximum number of events of a watch that
+     * are dispatched, but not yet handled, before the pending events of the
+     * watch are collapsed into a single overflow
+     * @param flyweightEvents Whether JDK events are translated into reusable
+     * events (instead of into new events)
+     * @throws IOException When a watch service could not be created
+     */
+    public JDKPoller(int shardCount, int budget, int registerThreads, ThreadFactory pollerThreads, int maxPendingEvents, boolean flyweightEvents) throws IOException {
+        this(shardCount, budget, registerThreads, pollerThreads, maxPendingEvents, flyweightEvents, Platform.get());
+    }
 
-    static {
+    // Package-private for testing (to choose the platform explicitly)
+    JDKPoller(int shardCount, int budget, int registerThreads, ThreadFactory pollerThreads, int maxPendingEvents, boolean flyweightEvents, Platform platform) throws IOException {
+        if (shardCount <= 0 || budget <= 0 || maxPendingEvents <= 0) {
+            throw new IllegalArgumentException("shardCount, budget, and maxPendingEvents should be higher than 0");
+        }
+        this.maxPendingEvents = maxPendingEvents;
+        this.flyweightEvents = flyweightEvents;
+        this.registry = new Registry(shardCount, budget, registerThreads, pollerThreads, statistics, platform);
+        this.bundle = new BundledSubscription<>(registry);
+    }
+
+    /**
+     * @return How long signalled keys waited for their turns in the poll
+     * loops (of all shards) of this poller
+     */
+    public KeyWaitStatistics getKeyWaitStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return The maximum number of pending events per watch (see
+     * {@link JDKDirectoryWatch})
+     */
+    int getMaxPendingEvents() {
+        return maxPendingEvents;
+    }
+
+    /**
+     * @return Whether watches translate JDK events into reusable events (see
+     * {@link FlyweightWatchEvent})
+     */
+    boolean usesFlyweightEvents() {
+        return flyweightEvents;
+    }
+
+    /**
+     * Subscribes to the events of a path. Multiple subscriptions to the same
+     * path share a single registration with the watch service, which is
+     * registered for the union of the kinds of events of the subscriptions.
+     */
+    Closeable subscribe(SubscriptionKey path, Consumer<SharedEventBatch> changesHandler) throws IOException {
+        var subscription = bundle.subscribe(path, changesHandler);
         try {
-            service = Platform.get().newWatchService();
+            registry.widen(path);
         } catch (IOException e) {
-            throw new RuntimeException("Could not start watcher", e);
+            subscription.close();
+            throw e;
         }
-        // kick off the poll loop
-        poll();
+        return subscription;
     }
 
-    private static void poll() {
+    /**
+     * Subscribes to the events of all paths at once (see
+     * {@link ISubscribable#subscribeAll}). This is used by
+     * {@link JDKFileTreeWatch} to register all subdirectories of a directory
+     * in one go, so their kernel registrations are pipelined.
+     */
+    List<Closeable> subscribeAll(List<SubscriptionKey> paths, List<Consumer<SharedEventBatch>> changesHandlers) throws IOException {
+        var subscriptions = bundle.subscribeAll(paths, changesHandlers);
         try {
-            WatchKey hit;
-            while ((hit = service.poll()) != null) {
-                logger.trace("Got hit: {}", hit);
+            for (var path : paths) {
+                registry.widen(path);
+            }
+        } catch (IOException e) {
+            for (var s : subscriptions) {
+                try {
+                    s.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        return subscriptions;
+    }
+
+    @Override
+    public void close() throws IOException {
+        registry.close();
+    }
+
+    /**
+     * The progress of a signalled key in the poll loop of its shard
+     */
+    private static class Turn {
+        private final WatchKey key;
+        private @Nullable List<WatchEvent<?>> events = null;
+        private int next = 0;
+        private long readySince = System.nanoTime();
+        // The sequence number of the first event, and the time at which the
+        // events were polled (set together with `events`)
+        private long firstSequence = 0;
+        private long polledAt = 0;
+
+        Turn(WatchKey key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Handler of a chunk of the events of a key
+     */
+    @FunctionalInterface
+    private interface ChunkHandler {
+        /**
+         * @param firstSequence the sequence number of the first event of
+         * `chunk` (the others are numbered consecutively)
+         * @param polledAt the value of {@link System#nanoTime()} when the
+         * events were polled
+         */
+        void accept(List<WatchEvent<?>> chunk, long firstSequence, long polledAt);
+    }
+
+    /**
+     * The registration of a path with the watch service of a shard. Widening
+     * the registration re-registers the same watchable, so platforms that
+     * return the same key for the same watchable (e.g., inotify, and
+     * {@link MacWatchService}) update the key in place. Platforms that return
+     * a new key instead get their handler moved to the new key (and the old
+     * key cancelled).
+     */
+    private static class Registration {
+        private final Watchable watchable;
+        // Guarded by `this`
+        private final Set<engineering.swat.watch.WatchEvent.Kind> kinds;
+        private volatile WatchKey key;
+
+        Registration(Watchable watchable, Set<engineering.swat.watch.WatchEvent.Kind> kinds, WatchKey key) {
+            this.watchable = watchable;
+            this.kinds = kinds;
+            this.key = key;
+        }
+    }
+
+    private static class Shard {
+        private final Map<WatchKey, ChunkHandler> watchers = new ConcurrentHashMap<>();
+        // The registration of each path, which is registered for the union of
+        // the kinds of its subscribers
+        private final Map<SubscriptionKey, Registration> registrations = new ConcurrentHashMap<>();
+        private final WatchService service;
+        private final Platform platform;
+        private final int budget;
+        private final KeyWaitStatistics statistics;
+
+        Shard(int budget, KeyWaitStatistics statistics, Platform platform) throws IOException {
+            this.service = platform.newWatchService();
+            this.platform = platform;
+            this.budget = budget;
+            this.statistics = statistics;
+        }
+
+        void start(ThreadFactory threads) {
+            // kick off the poll loop on a dedicated thread, which blocks on the
+            // service while no keys are signalled (instead of waking up
+            // periodically to check if there's something to do)
+            var poller = threads.newThread(this::poll);
+            if (poller == null) {
+                throw new IllegalStateException("Could not create a poller thread");
+            }
+            poller.setDaemon(true);
+            poller.start();
+        }
+
+        private void poll() {
+            // the keys that are signalled, in the order in which they get
+            // their next turn
+            var ready = new ArrayDeque<Turn>();
+            while (true) {
                 try {
-                    var watchHandler = watchers.get(hit);
-                    if (watchHandler != null) {
-                        var events = hit.pollEvents();
-                        logger.trace("Found watcher for hit: {}, sending: {} (size: {})", watchHandler, events, events.size());
-                        watchHandler.accept(events);
+                    if (ready.isEmpty()) {
+                        ready.add(new Turn(service.take()));
                     }
+                    // let all newly signalled keys get in line, so they don't
+                    // have to wait until the busy ones are fully drained
+                    WatchKey hit;
+                    while ((hit = service.poll()) != null) {
+                        ready.add(new Turn(hit));
+                    }
+                } catch (InterruptedException e) {
+                    logger.debug("Poller was interrupted, continuing to wait for events");
+                    continue;
+                } catch (ClosedWatchServiceException e) {
+                    logger.debug("Watch service closed, stopping the poller");
+                    return;
                 }
-                catch (Throwable t) {
-                    logger.catching(Level.INFO, t);
-                    // one exception shouldn't stop all the processing
+
+                var turn = ready.remove();
+                if (take(turn)) {
+                    turn.key.reset();
+                } else {
+                    turn.readySince = System.nanoTime();
+                    ready.add(turn);
                 }
-                finally{
-                    hit.reset();
+            }
+        }
+
+        /**
+         * Dispatches the next (at most {@link #budget}) events of
+         * the key of a turn.
+         *
+         * @return `true` iff all events of the key have been dispatched
+         */
+        private boolean take(Turn turn) {
+            var wait = System.nanoTime() - turn.readySince;
+            statistics.record(wait);
+            logger.trace("Got hit: {} (waited: {} ns)", turn.key, wait);
+            try {
+                var watchHandler = watchers.get(turn.key);
+                if (watchHandler == null) {
+                    return true;
                 }
+                var events = turn.events;
+                if (events == null) {
+                    events = turn.key.pollEvents();
+                    turn.events = events;
+                    // Reserve the sequence numbers of all events at once, so
+                    // the per-event cost stays negligible
+                    turn.firstSequence = engineering.swat.watch.WatchEvent.reserveSequenceNumbers(events.size());
+                    turn.polledAt = System.nanoTime();
+                }
+                var from = turn.next;
+                var to = events.size() - from > budget ? from + budget : events.size();
+                var chunk = from == 0 && to == events.size() ? events : events.subList(from, to);
+                turn.next = to;
+                logger.trace("Found watcher for hit: {}, sending: {} (size: {})", watchHandler, chunk, chunk.size());
+                watchHandler.accept(chunk, turn.firstSequence + from, turn.polledAt);
+            }
+            catch (Throwable t) {
+                logger.catching(Level.INFO, t);
+                // one exception shouldn't stop all the processing
             }
+            var events = turn.events;
+            return events == null || turn.next == events.size();
         }
-        finally {
-            // schedule next run
-            // note we don't want to have multiple polls running in parallel
-            // so that is why we only schedule the next one after we're done
-            // processing all messages
-            CompletableFuture
-                .delayedExecutor(1, TimeUnit.MILLISECONDS)
-                .execute(JDKPoller::poll);
+
+        /**
+         * Registers `path` for (at least) the kinds of events in `kinds`
+         */
+        Registration register(SubscriptionKey path, Set<engineering.swat.watch.WatchEvent.Kind> kinds) throws IOException {
+            var watchable = platform.newWatchable(path.getPath());
+            return new Registration(watchable, kinds, register(watchable, path, toJDK(kinds)));
+        }
+
+        /**
+         * Widens the registration of `path`, if needed, to include the kinds
+         * of events of `path` (i.e., of a new subscriber)
+         */
+        void widen(SubscriptionKey path) throws IOException {
+            var registration = registrations.get(path);
+            if (registration == null) {
+                return; // The registration was closed in the meantime
+            }
+            synchronized (registration) {
+                var kinds = registration.kinds;
+                if (kinds.containsAll(path.getKinds())) {
+                    return;
+                }
+                var union = EnumSet.copyOf(kinds);
+                union.addAll(path.getKinds());
+                var oldKey = registration.key;
+                var newKey = register(registration.watchable, path, toJDK(union));
+                kinds.addAll(union);
+                if (newKey != oldKey) {
+                    // Install the handler on the new key before the old key
+                    // stops, so no events are missed in between
+                    var handler = watchers.get(oldKey);
+                    if (handler != null) {
+                        watchers.put(newKey, handler);
+                        watchers.remove(oldKey, handler);
+                    }
+                    registration.key = newKey;
+                    oldKey.cancel();
+                }
+            }
+        }
+
+        private static WatchEvent.Kind<?>[] toJDK(Set<engineering.swat.watch.WatchEvent.Kind> kinds) {
+            var jdkKinds = new ArrayList<WatchEvent.Kind<?>>(4);
+            if (kinds.contains(engineering.swat.watch.WatchEvent.Kind.CREATED)) {
+                jdkKinds.add(ENTRY_CREATE);
+            }
+            if (kinds.contains(engineering.swat.watch.WatchEvent.Kind.MODIFIED)) {
+                jdkKinds.add(ENTRY_MODIFY);
+            }
+            jdkKinds.add(OVERFLOW); // Always reported anyway
+            if (kinds.contains(engineering.swat.watch.WatchEvent.Kind.DELETED)) {
+                jdkKinds.add(ENTRY_DELETE);
+            }
+            return jdkKinds.toArray(new WatchEvent.Kind<?>[0]);
+        }
+
+        private WatchKey register(Watchable watchable, SubscriptionKey path, WatchEvent.Kind<?>[] kinds) throws IOException {
+            if (path.isRecursive()) {
+                return watchable.register(service, kinds, ExtendedWatchEventModifier.FILE_TREE);
+            }
+            else {
+                return watchable.register(service, kinds);
+            }
         }
     }
 
+    /**
+     * The registrations of paths with the watch services of the shards
+     */
+    private static class Registry implements ISubscribable<SubscriptionKey, SharedEventBatch>, Closeable {
+        private final Shard[] shards;
+        // The shard that holds the registration of each path. Subscription
+        // keys are equal regardless of their subtree, so a later subscriber
+        // to a path can have a subtree that is assigned to another shard.
+        private final Map<SubscriptionKey, Shard> owners = new ConcurrentHashMap<>();
+        /**
+         * We have to be a bit careful with registering too many paths in parallel
+         * Linux can be thrown into a deadlock if you try to start 1000 threads and then do a register at the same time.
+         */
+        private final ExecutorService registerPool;
+
+        Registry(int shardCount, int budget, int registerThreads, ThreadFactory pollerThreads, KeyWaitStatistics statistics, Platform platform) throws IOException {
+            this.registerPool = DaemonThreadPool.buildConstrainedCached("JavaWatch-rate-limit-registry", registerThreads);
+            this.shards = new Shard[shardCount];
+            for (int i = 0; i < shards.length; i++) {
+                try {
+                    shards[i] = new Shard(budget, statistics, platform);
+                } catch (IOException e) {
+                    registerPool.shutdown();
+                    for (int j = 0; j < i; j++) {
+                        shards[j].service.close();
+                    }
+                    throw e;
+                }
+            }
+            for (var shard : shards) {
+                shard.start(pollerThreads);
+            }
+        }
 
-    public static Closeable register(SubscriptionKey path, Consumer<List<WatchEvent<?>>> changesHandler) throws IOException {
-        logger.debug("Register watch for: {}", path);
+        /**
+         * Keys are assigned to shards based on their subtree (see
+         * {@link SubscriptionKey#getSubtree()}), so all paths in the same subtree
+         * share a shard. Thus, when a subtree is very busy, it can overflow only
+         * the queue of its own shard. Widening happens in the shard that
+         * holds the registration of the path, which depends on the subtree of
+         * its first subscriber.
+         */
+        void widen(SubscriptionKey key) throws IOException {
+            var shard = owners.get(key);
+            if (shard != null) {
+                shard.widen(key);
+            }
+        }
 
-        try {
-            return CompletableFuture.supplyAsync(() -> {
+        private Shard shardFor(SubscriptionKey key) {
+            return shards[Math.floorMod(key.getSubtree().hashCode(), shards.length)];
+        }
+
+        @Override
+        public Closeable subscribe(SubscriptionKey path, Consumer<SharedEventBatch> changesHandler) throws IOException {
+            return await(registerAsync(path, changesHandler));
+        }
+
+        /**
+         * Registers all paths at once: the registrations are pipelined through
+         * {@link #registerPool}, and this method blocks until all of them are
+         * done. If any registration fails, then the successful ones are closed
+         * again, and the first failure is thrown.
+         *
+         * @return The closeables of the registrations, in the order of
+         * {@code paths}
+         */
+        @Override
+        public List<Closeable> subscribeAll(List<SubscriptionKey> paths, List<Consumer<SharedEventBatch>> changesHandlers) throws IOException {
+            if (paths.size() != changesHandlers.size()) {
+                throw new IllegalArgumentException("Each path should have exactly one handler");
+            }
+            var futures = new ArrayList<CompletableFuture<Closeable>>(paths.size());
+            for (int i = 0; i < paths.size(); i++) {
+                futures.add(registerAsync(paths.get(i), changesHandlers.get(i)));
+            }
+
+            var result = new ArrayList<Closeable>(futures.size());
+            @Nullable IOException firstFail = null;
+            for (var f : futures) {
                 try {
-                    Watchable watchable = Platform.get().newWatchable(path.getPath());
-                    WatchEvent.Kind<?>[] kinds = new WatchEvent.Kind[]{ ENTRY_CREATE, ENTRY_MODIFY, OVERFLOW, ENTRY_DELETE };
-                    if (path.isRecursive()) {
-                        return watchable.register(service, kinds, ExtendedWatchEventModifier.FILE_TREE);
+                    result.add(await(f));
+                } catch (IOException e) {
+                    if (firstFail == null) {
+                        firstFail = e;
                     }
-                    else {
-                        return watchable.register(service, kinds);
+                }
+            }
+
+            if (firstFail != null) {
+                for (var c : result) {
+                    try {
+                        c.close();
+                    } catch (IOException e) {
+                        logger.error("Could not close registration after a failed batch", e);
                     }
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
                 }
-            }, registerPool) // read registerPool why we have to add a limiter here
-            .thenApplyAsync(key -> {
-                watchers.put(key, changesHandler);
-                return new Closeable() {
-                    @Override
-                    public void close() throws IOException {
-                        logger.debug("Closing watch for: {}", path);
-                        if (watchers.remove(key, changesHandler)) {
+                throw firstFail;
+            }
+            return result;
+        }
+
+        private CompletableFuture<Closeable> registerAsync(SubscriptionKey path, Consumer<SharedEventBatch> changesHandler) {
+            logger.debug("Register watch for: {}", path);
+            var shard = shardFor(path);
+
+            try {
+                return CompletableFuture.supplyAsync(() -> registerWith(shard, path, changesHandler), registerPool); // read registerPool why we have to add a limiter here
+            } catch (RejectedExecutionException e) {
+                return CompletableFuture.failedFuture(new IOException("The poller is closed", e));
+            }
+        }
+
+        private Closeable registerWith(Shard shard, SubscriptionKey path, Consumer<SharedEventBatch> subscriber) {
+            ChunkHandler changesHandler = (events, firstSequence, polledAt) -> subscriber.accept(
+                new SharedEventBatch(path.getPath(), events, engineering.swat.watch.WatchEvent.Source.NATIVE, firstSequence, polledAt));
+            Registration registration;
+            var kinds = EnumSet.noneOf(engineering.swat.watch.WatchEvent.Kind.class);
+            kinds.addAll(path.getKinds());
+            try {
+                registration = shard.register(path, kinds);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            shard.registrations.put(path, registration);
+            owners.put(path, shard);
+            shard.watchers.put(registration.key, changesHandler);
+            return new Closeable() {
+                @Override
+                public void close() throws IOException {
+                    logger.debug("Closing watch for: {}", path);
+                    synchronized (registration) {
+                        var key = registration.key;
+                        if (shard.watchers.remove(key, changesHandler)) {
                             key.cancel();
+                            if (shard.registrations.remove(path, registration)) {
+                                owners.remove(path, shard);
+                            }
                         }
                     }
-                };
-            })
-            .get(); // we have to do a get here, to make sure the `register` function blocks
-        } catch (ExecutionException e) {
-            if (e.getCause() instanceof RuntimeException && e.getCause().getCause() instanceof IOException) {
-                throw (IOException)e.getCause().getCause();
-            }
-            throw new IOException("Could not register path", e.getCause());
-        } catch (InterruptedException e) {
-            // the pool was closing, forward it
-            Thread.currentThread().interrupt();
-            throw new IOException("The registration was canceled");
+                }
+            };
+        }
+
+        private static Closeable await(CompletableFuture<Closeable> registration) throws IOException {
+            try {
+                return registration.get(); // we have to do a get here, to make sure the `register` function blocks
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException)e.getCause();
+                }
+                throw new IOException("Could not register path", e.getCause());
+            } catch (InterruptedException e) {
+                // the pool was closing, forward it
+                Thread.currentThread().interrupt();
+                throw new IOException("The registration was canceled");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            registerPool.shutdown();
+            @Nullable IOException firstFail = null;
+            for (var shard : shards) {
+                try {
+                    shard.service.close();
+                } catch (IOException e) {
+                    if (firstFail == null) {
+                        firstFail = e;
+                    }
+                }
+            }
+            if (firstFail != null) {
+                throw firstFail;
+            }
         }
     }
 
-    private static interface Platform {
+    // Package-private for testing
+    static interface Platform {
         WatchService newWatchService() throws IOException;
         Watchable newWatchable(Path path);
 
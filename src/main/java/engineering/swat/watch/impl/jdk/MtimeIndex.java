@@ -0,0 +1,137 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import engineering.swat.watch.WatchEvent;
+
+/**
+ * Index of the last-modified times (and sizes) of the entries of a directory,
+ * to detect changes in the directory by scanning it periodically (instead of
+ * having the OS report them). Times are compared at full precision, and sizes
+ * catch writes that don't change the time (e.g., on file systems with coarse
+ * timestamps). Changes to subdirectories are detected only when they're
+ * created or deleted (not when their contents change).
+ *
+ * This class is not thread-safe.
+ */
+final class MtimeIndex {
+    // Subdirectories are indexed with this stamp (instead of their own)
+    private static final Stamp DIRECTORY = new Stamp(FileTime.fromMillis(Long.MIN_VALUE), -1);
+
+    private Map<Path, Stamp> entries = new HashMap<>();
+
+    /**
+     * State of an entry that changes when the entry is modified
+     */
+    private static final class Stamp {
+        private final FileTime modified;
+        private final long size;
+
+        Stamp(FileTime modified, long size) {
+            this.modified = modified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            if (!(obj instanceof Stamp)) {
+                return false;
+            }
+            var other = (Stamp) obj;
+            return size == other.size && modified.equals(other.modified);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * modified.hashCode() + Long.hashCode(size);
+        }
+    }
+
+    @FunctionalInterface
+    interface ChangeConsumer {
+        void accept(WatchEvent.Kind kind, Path fileName);
+    }
+
+    /**
+     * @return The number of indexed entries
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Scans `directory`, reports the changes since the previous scan to
+     * `changes` (if not {@code null}; the first scan only populates this
+     * index), and updates this index accordingly
+     *
+     * @throws IOException When `directory` can't be listed
+     */
+    void scan(Path directory, @Nullable ChangeConsumer changes) throws IOException {
+        var scanned = new HashMap<Path, Stamp>(Math.max(16, 2 * entries.size()));
+        try (var stream = Files.newDirectoryStream(directory)) {
+            for (var entry : stream) {
+                var fileName = entry.getFileName();
+                if (fileName == null) {
+                    continue;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    continue; // Deleted while scanning (detected by the next scan)
+                }
+                var value = attrs.isDirectory() ? DIRECTORY : new Stamp(attrs.lastModifiedTime(), attrs.size());
+                scanned.put(fileName, value);
+                if (changes != null) {
+                    var previous = entries.remove(fileName);
+                    if (previous == null) {
+                        changes.accept(WatchEvent.Kind.CREATED, fileName);
+                    } else if (!previous.equals(value)) {
+                        changes.accept(WatchEvent.Kind.MODIFIED, fileName);
+                    }
+                }
+            }
+        }
+        if (changes != null) {
+            for (var fileName : entries.keySet()) {
+                changes.accept(WatchEvent.Kind.DELETED, fileName);
+            }
+        }
+        entries = scanned;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import engineering.swat.watch.WatchEvent;
+
+/**
+ * Immutable batch of JDK events for a path, shared by all watches that
+ * subscribe to the path (see {@link JDKPoller#subscribe}). Each event is
+ * translated at most once, on demand, for all watches together: watches can
+ * inspect the kinds and paths of events without translating them (e.g., to
+ * filter them), and watches that need events of their own (e.g., flyweights,
+ * or events relative to another root) don't need the shared ones at all.
+ *
+ * This class is thread-safe. Concurrent calls of {@link #get} may translate
+ * the same event more than once (which is harmless, as events are
+ * immutable), but they don't need to synchronize.
+ */
+final class SharedEventBatch extends AbstractList<WatchEvent> implements RandomAccess {
+    private final Path path;
+    private final List<java.nio.file.WatchEvent<?>> events;
+    private final WatchEvent.Source source;
+    private final long firstSequence;
+    private final long timestamp;
+    private volatile @Nullable WatchEvent @Nullable [] translated = null;
+
+    /**
+     * @param firstSequence the sequence number of the first event (the
+     * others are numbered consecutively)
+     * @param timestamp the value of {@link System#nanoTime()} when the events
+     * were captured
+     */
+    SharedEventBatch(Path path, List<java.nio.file.WatchEvent<?>> events,
+            WatchEvent.Source source, long firstSequence, long timestamp) {
+        this.path = path;
+        this.events = events;
+        this.source = source;
+        this.firstSequence = firstSequence;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return A batch of synthetic events, numbered and timestamped now
+     */
+    static SharedEventBatch synthetic(Path path, List<java.nio.file.WatchEvent<?>> events) {
+        return new SharedEventBatch(path, events, WatchEvent.Source.SYNTHETIC,
+            WatchEvent.reserveSequenceNumbers(events.size()), System.nanoTime());
+    }
+
+    /**
+     * @return The path that the events of this batch are relative to
+     */
+    Path getPath() {
+        return path;
+    }
+
+    WatchEvent.Source getSource() {
+        return source;
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    long sequence(int index) {
+        return firstSequence + index;
+    }
+
+    /**
+     * @return The kind of the `index`-th event, without translating it
+     * @throws IllegalArgumentException if the kind is unsupported
+     */
+    WatchEvent.Kind kind(int index) {
+        return translate(events.get(index).kind());
+    }
+
+    /**
+     * @return The path of the `index`-th event relative to {@link #getPath()}
+     * (or {@code null} for overflows), without translating it
+     */
+    @Nullable Path child(int index) {
+        var event = events.get(index);
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            return null;
+        }
+        var context = event.context();
+        return context instanceof Path ? (Path) context : null;
+    }
+
+    static WatchEvent.Kind translate(java.nio.file.WatchEvent.Kind<?> jdkKind) {
+        if (jdkKind == StandardWatchEventKinds.ENTRY_CREATE) {
+            return WatchEvent.Kind.CREATED;
+        }
+        if (jdkKind == StandardWatchEventKinds.ENTRY_MODIFY) {
+            return WatchEvent.Kind.MODIFIED;
+        }
+        if (jdkKind == StandardWatchEventKinds.ENTRY_DELETE) {
+            return WatchEvent.Kind.DELETED;
+        }
+        if (jdkKind == StandardWatchEventKinds.OVERFLOW) {
+            return WatchEvent.Kind.OVERFLOW;
+        }
+
+        throw new IllegalArgumentException("Unexpected watch kind: " + jdkKind);
+    }
+
+    // -- AbstractList --
+
+    /**
+     * @return The `index`-th event, translated (if it wasn't already)
+     * @throws IllegalArgumentException if the kind is unsupported
+     */
+    @Override
+    public WatchEvent get(int index) {
+        var cache = translated;
+        if (cache == null) {
+            cache = new WatchEvent[events.size()];
+            translated = cache;
+        }
+        var event = cache[index];
+        if (event == null) {
+            event = new WatchEvent(kind(index), path, child(index), source, sequence(index), timestamp);
+            cache[index] = event;
+        }
+        return event;
+    }
+
+    @Override
+    public int size() {
+        return events.size();
+    }
+}
@@ -29,8 +29,12 @@ package engineering.swat.watch.impl.mac;
 import java.io.IOException;
 import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Path;
+import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.Watchable;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -38,9 +42,37 @@ import java.util.concurrent.TimeUnit;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class MacWatchService implements WatchService {
-    final BlockingQueue<MacWatchKey> pendingKeys = new LinkedBlockingQueue<>();
+    final BlockingQueue<WatchKey> pendingKeys = new LinkedBlockingQueue<>();
     volatile boolean closed = false;
 
+    /**
+     * Marker that is enqueued when this service is closed, to wake up threads
+     * that are blocked in {@link #take()} or {@link #poll(long, TimeUnit)}.
+     * It's never returned to callers.
+     */
+    private static final WatchKey CLOSED = new WatchKey() {
+        @Override
+        public boolean isValid() {
+            return false;
+        }
+        @Override
+        public List<WatchEvent<?>> pollEvents() {
+            return Collections.emptyList();
+        }
+        @Override
+        public boolean reset() {
+            return false;
+        }
+        @Override
+        public void cancel() {
+            // Nothing to cancel
+        }
+        @Override
+        public Watchable watchable() {
+            throw new UnsupportedOperationException();
+        }
+    };
+
     boolean offer(MacWatchKey key) {
         return pendingKeys.offer(key);
     }
@@ -53,36 +85,54 @@ public class MacWatchService implements WatchService {
         return new MacWatchable(path);
     }
 
+    private void ensureOpen() {
+        if (closed) {
+            throw new ClosedWatchServiceException();
+        }
+    }
+
+    private void ensureNotClosedMarker(@Nullable WatchKey key) {
+        if (key == CLOSED) {
+            // Put the marker back, so other blocked threads wake up, too
+            pendingKeys.offer(CLOSED);
+            throw new ClosedWatchServiceException();
+        }
+    }
+
     // -- WatchService --
 
     @Override
     public void close() throws IOException {
-        closed = true;
-        // Note: We currently don't support blocking poll/take, so no additional
-        // logic is needed here to interrupt waiting threads (as specified in
-        // the documentation of `close`).
+        if (!closed) {
+            closed = true;
+            // As specified in the documentation of `close`, threads that are
+            // blocked in `take` or `poll` should immediately wake up (and then
+            // get a `ClosedWatchServiceException`).
+            pendingKeys.offer(CLOSED);
+        }
     }
 
     @Override
     public @Nullable WatchKey poll() {
-        if (closed) {
-            throw new ClosedWatchServiceException();
-        } else {
-            return pendingKeys.poll();
-        }
+        ensureOpen();
+        var key = pendingKeys.poll();
+        ensureNotClosedMarker(key);
+        return key;
     }
 
     @Override
     public @Nullable WatchKey poll(long timeout, TimeUnit unit) throws InterruptedException {
-        // We currently don't need/use blocking operations, so let's keep the
-        // code simple for now.
-        throw new UnsupportedOperationException();
+        ensureOpen();
+        var key = pendingKeys.poll(timeout, unit);
+        ensureNotClosedMarker(key);
+        return key;
     }
 
     @Override
     public WatchKey take() throws InterruptedException {
-        // We currently don't need/use blocking operations, so let's keep the
-        // code simple for now.
-        throw new UnsupportedOperationException();
+        ensureOpen();
+        var key = pendingKeys.take();
+        ensureNotClosedMarker(key);
+        return key;
     }
 }
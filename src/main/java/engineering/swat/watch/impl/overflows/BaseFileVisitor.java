@@ -38,6 +38,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchFilter;
 import engineering.swat.watch.WatchScope;
 
 /**
@@ -47,21 +48,57 @@ import engineering.swat.watch.WatchScope;
  * calls {@link Files#walkFileTree} to visit the file tree that starts at
  * {@link #path}, with a maximum depth inferred from {@link #scope}. Subclasses
  * can be specialized, for instance, to generate synthetic events or index a
- * file tree.
+ * file tree. Subclasses should skip the subtrees of excluded directories (see
+ * {@link #isExcluded}).
  */
 public class BaseFileVisitor extends SimpleFileVisitor<Path> {
     private final Logger logger = LogManager.getLogger();
     protected final Path path;
     protected final WatchScope scope;
+    private final Path root;
+    private final WatchFilter filter;
 
     public BaseFileVisitor(Path path, WatchScope scope) {
+        this(path, scope, path, WatchFilter.all());
+    }
+
+    /**
+     * @param root the watched path that the exclude patterns of `filter` are
+     * relative to (i.e., `path` or one of its ancestors)
+     */
+    public BaseFileVisitor(Path path, WatchScope scope, Path root, WatchFilter filter) {
         this.path = path;
         this.scope = scope;
+        this.root = root;
+        this.filter = filter;
+    }
+
+    /**
+     * @return {@code true} iff the subtree of `dir` is excluded by the filter,
+     * so it doesn't need to be visited
+     */
+    protected boolean isExcluded(Path dir) {
+        return filter != WatchFilter.all() && !dir.equals(root)
+            && filter.excludesSubtree(EMPTY_PATH, root.relativize(dir));
+    }
+
+    private static final Path EMPTY_PATH = Path.of("");
+
+    /**
+     * @return The number of levels below `dir` that may contain paths that
+     * are accepted by the filter (which limits the depth relative to `root`)
+     */
+    private int maxDepthBelow(Path dir) {
+        var maxDepth = filter.getMaxDepth();
+        if (maxDepth == Integer.MAX_VALUE || dir.equals(root)) {
+            return maxDepth;
+        }
+        return Math.max(0, maxDepth - root.relativize(dir).getNameCount());
     }
 
     public void walkFileTree() {
         var options = EnumSet.noneOf(FileVisitOption.class);
-        var maxDepth = scope == WatchScope.PATH_AND_ALL_DESCENDANTS ? Integer.MAX_VALUE : 1;
+        var maxDepth = scope == WatchScope.PATH_AND_ALL_DESCENDANTS ? maxDepthBelow(path) : 1;
         try {
             Files.walkFileTree(path, options, maxDepth, this);
         } catch (IOException e) {
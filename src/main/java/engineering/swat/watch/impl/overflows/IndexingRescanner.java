@@ -33,9 +33,11 @@ import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -48,6 +50,7 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchFilter;
 import engineering.swat.watch.WatchScope;
 import engineering.swat.watch.impl.EventHandlingWatch;
 
@@ -56,7 +59,15 @@ public class IndexingRescanner extends MemorylessRescanner {
     private final PathMap<FileTime> index = new PathMap<>();
 
     public IndexingRescanner(Executor exec, Path path, WatchScope scope) {
-        super(exec);
+        this(exec, path, scope, WatchFilter.all());
+    }
+
+    /**
+     * @param filter the filter whose excluded subtrees are not indexed or
+     * rescanned (relative to `path`)
+     */
+    public IndexingRescanner(Executor exec, Path path, WatchScope scope, WatchFilter filter) {
+        super(exec, path, filter);
         new Indexer(path, scope).walkFileTree(); // Make an initial scan to populate the index
     }
 
@@ -160,11 +171,14 @@ public class IndexingRescanner extends MemorylessRescanner {
 
     private class Indexer extends BaseFileVisitor {
         public Indexer(Path path, WatchScope scope) {
-            super(path, scope);
+            super(path, scope, path, filter);
         }
 
         @Override
         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+            if (isExcluded(dir)) {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
             if (!path.equals(dir)) {
                 index.put(dir, attrs.lastModifiedTime());
             }
@@ -228,6 +242,10 @@ public class IndexingRescanner extends MemorylessRescanner {
         @Override
         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
             addToPeeked(visited, dir);
+            if (isExcluded(dir)) {
+                // Skipped subtrees aren't post-visited, so don't push a frame
+                return FileVisitResult.SKIP_SUBTREE;
+            }
             visited.push(new HashSet<>());
             return super.preVisitDirectory(dir, attrs);
         }
@@ -262,12 +280,22 @@ public class IndexingRescanner extends MemorylessRescanner {
     // -- MemorylessRescanner --
 
     @Override
-    public void accept(EventHandlingWatch watch, WatchEvent event) {
+    public void accept(EventHandlingWatch watch, List<WatchEvent> events) {
         // Auto-handle `OVERFLOW` events
-        super.accept(watch, event);
+        super.accept(watch, events);
 
         // Additional processing is needed to update the index when `CREATED`,
         // `MODIFIED`, and `DELETED` events happen.
+        var synthetic = new ArrayList<WatchEvent>(0);
+        for (var event : events) {
+            update(watch, event, synthetic);
+        }
+        if (!synthetic.isEmpty()) {
+            watch.handleEvents(synthetic);
+        }
+    }
+
+    private void update(EventHandlingWatch watch, WatchEvent event, List<WatchEvent> synthetic) {
         var kind = event.getKind();
         var fullPath = event.calculateFullPath();
         switch (kind) {
@@ -282,7 +310,7 @@ public class IndexingRescanner extends MemorylessRescanner {
                     // missed. Just in case, it's issued synthetically here.
                     if (lastModifiedTimeOld == null && kind == WatchEvent.Kind.MODIFIED) {
                         var created = new WatchEvent(WatchEvent.Kind.CREATED, fullPath);
-                        watch.handleEvent(watch.relativize(created));
+                        synthetic.add(watch.relativize(created));
                     }
                 } catch (IOException e) {
                     // It can happen that, by the time a `CREATED`/`MODIFIED`
@@ -34,17 +34,35 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
 import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchFilter;
 import engineering.swat.watch.WatchScope;
 import engineering.swat.watch.impl.EventHandlingWatch;
+import engineering.swat.watch.impl.util.KeyedSerialExecutor;
 
-public class MemorylessRescanner implements BiConsumer<EventHandlingWatch, WatchEvent> {
+public class MemorylessRescanner implements BiConsumer<EventHandlingWatch, List<WatchEvent>> {
     private final Executor exec;
+    protected final @Nullable Path root;
+    protected final WatchFilter filter;
 
     public MemorylessRescanner(Executor exec) {
+        this(exec, null, WatchFilter.all());
+    }
+
+    /**
+     * @param root the watched path that the exclude patterns of `filter` are
+     * relative to (or {@code null} if `filter` has none)
+     * @param filter the filter whose excluded subtrees are not rescanned
+     */
+    public MemorylessRescanner(Executor exec, @Nullable Path root, WatchFilter filter) {
         this.exec = exec;
+        this.root = root;
+        this.filter = filter;
     }
 
     /**
@@ -55,9 +73,12 @@ public class MemorylessRescanner implements BiConsumer<EventHandlingWatch, Watch
     protected void rescan(EventHandlingWatch watch) {
         var generator = newGenerator(watch.getPath(), watch.getScope());
         generator.walkFileTree();
-        generator.eventStream()
+        var events = generator.eventStream()
             .map(watch::relativize)
-            .forEach(watch::handleEvent);
+            .collect(Collectors.toList());
+        if (!events.isEmpty()) {
+            watch.handleEvents(events);
+        }
     }
 
     protected Generator newGenerator(Path path, WatchScope scope) {
@@ -72,7 +93,7 @@ public class MemorylessRescanner implements BiConsumer<EventHandlingWatch, Watch
         protected final List<WatchEvent> events = new ArrayList<>();
 
         public Generator(Path path, WatchScope scope) {
-            super(path, scope);
+            super(path, scope, root == null ? path : root, filter);
         }
 
         public Stream<WatchEvent> eventStream() {
@@ -90,6 +111,9 @@ public class MemorylessRescanner implements BiConsumer<EventHandlingWatch, Watch
 
         @Override
         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+            if (isExcluded(dir)) {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
             if (!path.equals(dir)) {
                 generateEvents(dir, attrs);
             }
@@ -106,9 +130,22 @@ public class MemorylessRescanner implements BiConsumer<EventHandlingWatch, Watch
     // -- BiConsumer --
 
     @Override
-    public void accept(EventHandlingWatch watch, WatchEvent event) {
-        if (event.getKind() == WatchEvent.Kind.OVERFLOW) {
-            exec.execute(() -> rescan(watch));
+    public void accept(EventHandlingWatch watch, List<WatchEvent> events) {
+        // A single rescan suffices, even if the batch has multiple overflows
+        if (events.stream().anyMatch(e -> e.getKind() == WatchEvent.Kind.OVERFLOW)) {
+            var done = watch.startRescan();
+            try {
+                KeyedSerialExecutor.laneFor(exec, watch.getPath()).execute(() -> {
+                    try {
+                        rescan(watch);
+                    } finally {
+                        done.run();
+                    }
+                });
+            } catch (RuntimeException e) {
+                done.run();
+                throw e;
+            }
         }
     }
 }
@@ -0,0 +1,244 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.pull;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.impl.EventHandlingWatch;
+
+/**
+ * Event handler that queues the events of a watch, to be pulled by a consumer
+ * (see {@link QueuedWatch}), instead of pushing them to a callback. Producers
+ * (i.e., the threads that handle the events of the watch) don't block: they
+ * append to a lock-free queue and wake up the consumers that are waiting.
+ *
+ * The queue is bounded. When it's full, its events are collapsed: they are
+ * dropped, just as all subsequent events, until the consumer has emptied the
+ * queue. At that point, an `OVERFLOW` event is issued to the root watch (see
+ * {@link #bind}), so the consumer gets the overflow, followed by the
+ * approximation of the missed events (as configured for the watch). Thus, the
+ * memory usage of a slow consumer stays bounded.
+ *
+ * Consumers can pull events concurrently: every waiting consumer is in the
+ * wait set of the queue, and all of them are woken up when events arrive (to
+ * compete for them), or when the queue is closed. Typically, there is a single
+ * consumer, so the wait set is small.
+ */
+public class EventQueue implements BiConsumer<EventHandlingWatch, List<WatchEvent>> {
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Default maximum number of queued events
+     */
+    public static final int DEFAULT_MAX_QUEUED = 64 * 1024;
+
+    private final int maxQueued;
+    private final Queue<WatchEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+    private volatile @Nullable EventHandlingWatch root = null;
+    private volatile @Nullable Executor exec = null;
+
+    public EventQueue(int maxQueued) {
+        if (maxQueued <= 0) {
+            throw new IllegalArgumentException("The maximum number of queued events should be positive");
+        }
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Binds this queue to the watch that it queues the events of (which
+     * should happen before the watch is opened)
+     * @param root the watch to issue `OVERFLOW` events to, when the queue has
+     * overflowed
+     * @param exec the executor in which those `OVERFLOW` events are issued
+     */
+    public void bind(EventHandlingWatch root, Executor exec) {
+        this.root = root;
+        this.exec = exec;
+    }
+
+    /**
+     * Closes this queue: pending events can still be pulled, but consumers
+     * that wait for new events are woken up
+     */
+    public void close() {
+        closed = true;
+        wakeUp();
+    }
+
+    /**
+     * @return The next event, waiting up to `timeout` if necessary, or
+     * {@code null} if the timeout expired
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ClosedWatchServiceException if the queue is closed and empty
+     */
+    public @Nullable WatchEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        var event = next();
+        if (event != null) {
+            return event;
+        }
+        var deadline = System.nanoTime() + unit.toNanos(timeout);
+        var waiter = Thread.currentThread();
+        waiters.add(waiter);
+        try {
+            while (true) {
+                // Check the queue after joining the wait set (and before
+                // parking), so a concurrent producer can't be missed
+                event = next();
+                if (event != null) {
+                    return event;
+                }
+                if (closed) {
+                    throw new ClosedWatchServiceException();
+                }
+                var remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waiters.remove(waiter);
+        }
+    }
+
+    /**
+     * @return The next event, waiting if necessary
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ClosedWatchServiceException if the queue is closed and empty
+     */
+    public WatchEvent take() throws InterruptedException {
+        while (true) {
+            var event = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            if (event != null) {
+                return event;
+            }
+        }
+    }
+
+    /**
+     * Moves at most `max` queued events to `target`, without waiting
+     * @return The number of moved events
+     */
+    public int drainTo(Collection<? super WatchEvent> target, int max) {
+        int n = 0;
+        while (n < max) {
+            var event = next();
+            if (event == null) {
+                break;
+            }
+            target.add(event);
+            n++;
+        }
+        return n;
+    }
+
+    private @Nullable WatchEvent next() {
+        var event = queue.poll();
+        if (event != null) {
+            size.decrementAndGet();
+            return event;
+        }
+        if (overflowed.compareAndSet(true, false)) {
+            recover();
+            // The overflow may have been queued by now (with a direct executor)
+            event = queue.poll();
+            if (event != null) {
+                size.decrementAndGet();
+            }
+        }
+        return event;
+    }
+
+    private void recover() {
+        var root = this.root;
+        var exec = this.exec;
+        if (root == null || exec == null) {
+            logger.error("Cannot approximate the collapsed events of an unbound queue");
+            return;
+        }
+        var overflow = new WatchEvent(WatchEvent.Kind.OVERFLOW, root.getPath());
+        exec.execute(() -> root.handleEvent(overflow));
+    }
+
+    private void wakeUp() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        for (var w : waiters) {
+            LockSupport.unpark(w);
+        }
+    }
+
+    // -- BiConsumer --
+
+    @Override
+    public void accept(EventHandlingWatch watch, List<WatchEvent> events) {
+        if (overflowed.get()) {
+            return; // Missed events are approximated upon recovery
+        }
+        if (size.addAndGet(events.size()) > maxQueued) {
+            size.addAndGet(-events.size());
+            if (overflowed.compareAndSet(false, true)) {
+                logger.debug("Collapsing the queued events of a slow consumer");
+                // Events that are pulled concurrently are not lost, but they
+                // are covered by the approximation anyway
+                while (queue.poll() != null) {
+                    size.decrementAndGet();
+                }
+                wakeUp(); // To let a consumer recover
+            }
+            return;
+        }
+        for (var e : events) {
+            // Events are retained, so reusable events need to be copied
+            queue.add(e.copy());
+        }
+        wakeUp();
+    }
+}
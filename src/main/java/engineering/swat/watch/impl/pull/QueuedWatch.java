@@ -0,0 +1,98 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.pull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import engineering.swat.watch.ActiveWatch;
+import engineering.swat.watch.QueuedActiveWatch;
+import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchScope;
+
+/**
+ * Active watch whose events are pulled from an {@link EventQueue}
+ */
+public class QueuedWatch implements QueuedActiveWatch {
+    private final ActiveWatch watch;
+    private final EventQueue queue;
+
+    public QueuedWatch(ActiveWatch watch, EventQueue queue) {
+        this.watch = watch;
+        this.queue = queue;
+    }
+
+    // -- QueuedActiveWatch --
+
+    @Override
+    public Path getPath() {
+        return watch.getPath();
+    }
+
+    @Override
+    public WatchScope getScope() {
+        return watch.getScope();
+    }
+
+    @Override
+    public int getRegisteredDirectoryCount() {
+        return watch.getRegisteredDirectoryCount();
+    }
+
+    @Override
+    public int getScannedDirectoryCount() {
+        return watch.getScannedDirectoryCount();
+    }
+
+    @Override
+    public @Nullable WatchEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    @Override
+    public WatchEvent take() throws InterruptedException {
+        return queue.take();
+    }
+
+    @Override
+    public int drainTo(Collection<? super WatchEvent> target, int max) {
+        return queue.drainTo(target, max);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            watch.close();
+        } finally {
+            queue.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.reactive;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import engineering.swat.watch.ActiveWatch;
+import engineering.swat.watch.WatchScope;
+
+/**
+ * Active watch whose events are published by a {@link WatchPublisher}
+ */
+public class PublishedWatch implements ActiveWatch {
+    private final ActiveWatch watch;
+    private final WatchPublisher publisher;
+
+    public PublishedWatch(ActiveWatch watch, WatchPublisher publisher) {
+        this.watch = watch;
+        this.publisher = publisher;
+    }
+
+    // -- ActiveWatch --
+
+    @Override
+    public Path getPath() {
+        return watch.getPath();
+    }
+
+    @Override
+    public WatchScope getScope() {
+        return watch.getScope();
+    }
+
+    @Override
+    public int getRegisteredDirectoryCount() {
+        return watch.getRegisteredDirectoryCount();
+    }
+
+    @Override
+    public int getScannedDirectoryCount() {
+        return watch.getScannedDirectoryCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            watch.close();
+        } finally {
+            publisher.close();
+        }
+    }
+}
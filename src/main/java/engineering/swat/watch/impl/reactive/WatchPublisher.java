@@ -0,0 +1,289 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.reactive;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.impl.EventHandlingWatch;
+
+/**
+ * Event handler that publishes the events of a watch to a
+ * {@link Flow.Subscriber}, with respect for its demand. Events that are not
+ * yet requested (or not yet signalled to the subscriber) are buffered, up to a
+ * maximum. When the buffer overflows, its
+ * events are collapsed: they are dropped, just as all subsequent events, until
+ * the subscriber has demand again. At that point, an `OVERFLOW` event is issued
+ * to the root watch (see {@link #bind}), so the subscriber gets the overflow,
+ * followed by the approximation of the missed events (as configured for the
+ * watch). Thus, the memory usage of a slow subscriber stays bounded.
+ *
+ * This publisher is hot and unicast: events that happen while there is no
+ * subscriber are dropped, and there is at most one subscriber at a time (a
+ * new subscriber is accepted when the previous one has cancelled). When the
+ * watch is closed (see {@link #close()}), the subscriber is completed, after
+ * the events that are still buffered for it.
+ */
+public class WatchPublisher implements Flow.Publisher<WatchEvent>, BiConsumer<EventHandlingWatch, List<WatchEvent>> {
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Default maximum number of buffered events
+     */
+    public static final int DEFAULT_MAX_BUFFERED = 1024;
+
+    private static final Flow.Subscription NO_SUBSCRIPTION = new Flow.Subscription() {
+        @Override
+        public void request(long n) {}
+
+        @Override
+        public void cancel() {}
+    };
+
+    private final int maxBuffered;
+    private final AtomicReference<@Nullable BufferedSubscription> current = new AtomicReference<>();
+    private volatile @Nullable EventHandlingWatch root = null;
+    private volatile @Nullable Executor exec = null;
+    private volatile boolean closed = false;
+
+    public WatchPublisher(int maxBuffered) {
+        if (maxBuffered <= 0) {
+            throw new IllegalArgumentException("The maximum number of buffered events should be positive");
+        }
+        this.maxBuffered = maxBuffered;
+    }
+
+    /**
+     * Binds this publisher to the watch that it publishes the events of
+     * (which should happen before the watch is opened)
+     * @param root the watch to issue `OVERFLOW` events to, when the buffer of
+     * the subscriber has overflowed
+     * @param exec the executor in which those `OVERFLOW` events are issued
+     */
+    public void bind(EventHandlingWatch root, Executor exec) {
+        this.root = root;
+        this.exec = exec;
+    }
+
+    /**
+     * Completes the current subscriber (once it has received the events that
+     * are still buffered for it), as well as all future subscribers (right
+     * away), because the watch has been closed
+     */
+    public void close() {
+        closed = true;
+        var subscription = current.get();
+        if (subscription != null) {
+            subscription.complete();
+        }
+    }
+
+    // -- Flow.Publisher --
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super WatchEvent> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("The subscriber should not be null");
+        }
+        if (closed) {
+            subscriber.onSubscribe(NO_SUBSCRIPTION);
+            subscriber.onComplete();
+            return;
+        }
+        var subscription = new BufferedSubscription(subscriber);
+        if (!current.compareAndSet(null, subscription)) {
+            subscriber.onSubscribe(NO_SUBSCRIPTION);
+            subscriber.onError(new IllegalStateException("A watch publisher supports only one subscriber at a time"));
+            return;
+        }
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+        if (closed) { // The watch was closed while subscribing
+            subscription.complete();
+        }
+    }
+
+    // -- BiConsumer --
+
+    @Override
+    public void accept(EventHandlingWatch watch, List<WatchEvent> events) {
+        var subscription = current.get();
+        if (subscription != null) {
+            subscription.offer(events);
+        }
+    }
+
+    private class BufferedSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super WatchEvent> subscriber;
+
+        // The following fields are guarded by `this`
+        private final ArrayDeque<WatchEvent> buffer = new ArrayDeque<>();
+        private long demand = 0;
+        private boolean overflowed = false;
+        private boolean cancelled = false;
+        private boolean draining = false;
+        private boolean started = false; // The subscriber has been subscribed
+        private boolean completing = false;
+
+        BufferedSubscription(Flow.Subscriber<? super WatchEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void offer(List<WatchEvent> events) {
+            synchronized (this) {
+                if (cancelled || overflowed) {
+                    return; // Missed events are approximated upon recovery
+                }
+                for (var e : events) {
+                    if (buffer.size() >= maxBuffered) {
+                        logger.debug("Collapsing {} buffered events of a slow subscriber", buffer.size());
+                        buffer.clear();
+                        overflowed = true;
+                        break;
+                    }
+                    // Events are retained, so reusable events need to be copied
+                    buffer.add(e.copy());
+                }
+            }
+            drain();
+        }
+
+        void start() {
+            synchronized (this) {
+                started = true;
+            }
+            drain();
+        }
+
+        void complete() {
+            synchronized (this) {
+                completing = true;
+            }
+            drain();
+        }
+
+        /**
+         * Signals buffered events to the subscriber, as far as it has demand,
+         * and the completion, once the buffer is empty. Signals are serial: if
+         * another thread is already draining, then that thread picks up the
+         * new events, demand, or completion.
+         */
+        private void drain() {
+            synchronized (this) {
+                if (draining || !started) {
+                    return;
+                }
+                draining = true;
+            }
+            while (true) {
+                WatchEvent next = null;
+                var completed = false;
+                synchronized (this) {
+                    if (cancelled) {
+                        draining = false;
+                        return;
+                    }
+                    if (completing && buffer.isEmpty()) {
+                        // Missed events aren't approximated for a closed watch
+                        cancelled = true;
+                        draining = false;
+                        completed = true;
+                    } else if (demand == 0) {
+                        draining = false;
+                        return;
+                    } else if (!buffer.isEmpty()) {
+                        next = buffer.poll();
+                        demand--;
+                    } else if (overflowed) {
+                        overflowed = false;
+                    } else {
+                        draining = false;
+                        return;
+                    }
+                }
+                if (completed) {
+                    subscriber.onComplete();
+                    return;
+                }
+                if (next == null) {
+                    recover();
+                    continue;
+                }
+                try {
+                    subscriber.onNext(next);
+                } catch (Throwable t) {
+                    logger.error("Cancelling subscriber that threw an exception:", t);
+                    cancel();
+                }
+            }
+        }
+
+        private void recover() {
+            var root = WatchPublisher.this.root;
+            var exec = WatchPublisher.this.exec;
+            if (root == null || exec == null) {
+                logger.error("Cannot approximate the collapsed events of an unbound publisher");
+                return;
+            }
+            var overflow = new WatchEvent(WatchEvent.Kind.OVERFLOW, root.getPath());
+            exec.execute(() -> root.handleEvent(overflow));
+        }
+
+        // -- Flow.Subscription --
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("The number of requested events should be positive"));
+                return;
+            }
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                buffer.clear();
+            }
+            current.compareAndSet(this, null);
+        }
+    }
+}
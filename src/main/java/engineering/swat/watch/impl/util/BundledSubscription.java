@@ -28,18 +28,20 @@ package engineering.swat.watch.impl.util;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
  * This is an internal class where we can join multiple subscriptions to the same target by only taking 1 actual subscription but forwarding them to all the interested parties.
@@ -57,7 +59,10 @@ public class BundledSubscription<Key extends @NonNull Object, Event extends @Non
 
     private static class Subscription<R> implements Consumer<R> {
         private final List<Consumer<R>> consumers = new CopyOnWriteArrayList<>();
-        private volatile @MonotonicNonNull Closeable toBeClosed;
+        // completed by the first consumer that gets the lock, and awaited by
+        // all consumers (so they only continue once the wrapped subscription
+        // is active)
+        private volatile @Nullable CompletableFuture<Closeable> toBeClosed;
         private volatile boolean closed = false;
         Subscription() {
         }
@@ -82,8 +87,104 @@ public class BundledSubscription<Key extends @NonNull Object, Event extends @Non
         }
     }
 
-    @Override
-    public Closeable subscribe(Key target, Consumer<Event> eventListener) throws IOException {
+    /**
+     * The state of a single call of {@link #subscribe} (or a single target in
+     * a call of {@link #subscribeAll}), between joining a subscription and
+     * awaiting its wrapped subscription.
+     */
+    private class Joined {
+        private final Key target;
+        private final Subscription<Event> active;
+        private final Consumer<Event> eventListener;
+        private final CompletableFuture<Closeable> toBeClosed;
+        private final boolean first;
+
+        Joined(Key target, Subscription<Event> active, Consumer<Event> eventListener, CompletableFuture<Closeable> toBeClosed, boolean first) {
+            this.target = target;
+            this.active = active;
+            this.eventListener = eventListener;
+            this.toBeClosed = toBeClosed;
+            this.first = first;
+        }
+
+        Closeable await() throws IOException {
+            try {
+                toBeClosed.get();
+                return closer(target, active, eventListener);
+            } catch (ExecutionException e) {
+                leave();
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Could not subscribe to: " + target, e.getCause());
+            } catch (InterruptedException e) {
+                leave();
+                Thread.currentThread().interrupt();
+                throw new IOException("The subscription was canceled");
+            }
+        }
+
+        /**
+         * Undo the joining of the subscription after a failure, such that a
+         * next attempt to subscribe to the same target starts afresh.
+         */
+        private void leave() {
+            synchronized(active) {
+                active.remove(eventListener);
+                if (active.toBeClosed == toBeClosed) {
+                    active.toBeClosed = null;
+                }
+                if (!active.hasActiveConsumers() && !active.closed) {
+                    active.closed = true;
+                    subscriptions.remove(target, active);
+                }
+            }
+        }
+    }
+
+    /**
+     * Note: the closer should not capture a {@link Joined}, since callers
+     * might hold on to (very) many of them.
+     */
+    private Closeable closer(Key target, Subscription<Event> active, Consumer<Event> eventListener) {
+        return () -> release(target, active, eventListener);
+    }
+
+    private void release(Key target, Subscription<Event> active, Consumer<Event> eventListener) {
+        boolean scheduleClose = false;
+        synchronized(active) {
+            active.remove(eventListener);
+            scheduleClose = !active.hasActiveConsumers() && !active.closed;
+        }
+        if (scheduleClose) {
+            // to avoid hammering the system with closes & registers in a short periode
+            // we schedule the cleanup of watches in the background, when even after a small delay
+            // nobody is interested in a certain file anymore
+            CompletableFuture
+                .delayedExecutor(100, TimeUnit.MILLISECONDS)
+                .execute(() -> {
+                    synchronized(active) {
+                        if (!active.hasActiveConsumers() && !active.closed) {
+                            // still ready to be closed
+                            active.closed = true;
+                            subscriptions.remove(target, active);
+                            var toBeClosed = active.toBeClosed;
+                            if (toBeClosed != null) {
+                                toBeClosed.thenAccept(c -> {
+                                    try {
+                                        c.close();
+                                    } catch (IOException e) {
+                                        logger.error("Unhandled exception while closing the watcher for {} in the background", target, e);
+                                    }
+                                });
+                            }
+                        }
+                    }
+                });
+        }
+    }
+
+    private Joined join(Key target, Consumer<Event> eventListener) {
         while (true) {
             Subscription<Event> active = this.subscriptions.computeIfAbsent(target, t -> new Subscription<>());
             // after this, there will only be 1 instance of active subscription in the map.
@@ -96,43 +197,87 @@ public class BundledSubscription<Key extends @NonNull Object, Event extends @Non
                     continue;
                 }
                 active.add(eventListener);
-                if (active.toBeClosed == null) {
+                var toBeClosed = active.toBeClosed;
+                if (toBeClosed == null) {
                     // the watch is not active yet, and we were the first to get the lock
-                    active.toBeClosed = wrapped.subscribe(target, active);
+                    toBeClosed = new CompletableFuture<>();
+                    active.toBeClosed = toBeClosed;
+                    return new Joined(target, active, eventListener, toBeClosed, true);
                 }
+                return new Joined(target, active, eventListener, toBeClosed, false);
             }
-            return () -> {
-                boolean scheduleClose = false;
-                synchronized(active) {
-                    active.remove(eventListener);
-                    scheduleClose = !active.hasActiveConsumers() && !active.closed;
-                }
-                if (scheduleClose) {
-                    // to avoid hammering the system with closes & registers in a short periode
-                    // we schedule the cleanup of watches in the background, when even after a small delay
-                    // nobody is interested in a certain file anymore
-                    CompletableFuture
-                        .delayedExecutor(100, TimeUnit.MILLISECONDS)
-                        .execute(() -> {
-                            synchronized(active) {
-                                if (!active.hasActiveConsumers() && !active.closed) {
-                                    // still ready to be closed
-                                    active.closed = true;
-                                    this.subscriptions.remove(target, active);
-                                    if (active.toBeClosed != null) {
-                                        try {
-                                            active.toBeClosed.close();
-                                        } catch (IOException e) {
-                                            logger.error("Unhandled exception while closing the watcher for {} in the background", target, e);
-                                        }
-                                    }
-                                }
-                            }
-                        });
-                }
-            };
         }
     }
 
+    @Override
+    public Closeable subscribe(Key target, Consumer<Event> eventListener) throws IOException {
+        var joined = join(target, eventListener);
+        if (joined.first) {
+            try {
+                joined.toBeClosed.complete(wrapped.subscribe(target, joined.active));
+            } catch (IOException | RuntimeException e) {
+                joined.toBeClosed.completeExceptionally(e);
+            }
+        }
+        return joined.await();
+    }
+
+    /**
+     * Subscribes to all targets at once. The wrapped subscriptions that need
+     * to be made (i.e., for targets that nobody subscribed to yet) are made
+     * in bulk (see {@link ISubscribable#subscribeAll}).
+     */
+    @Override
+    public List<Closeable> subscribeAll(List<Key> targets, List<Consumer<Event>> eventListeners) throws IOException {
+        if (targets.size() != eventListeners.size()) {
+            throw new IllegalArgumentException("Each target should have exactly one listener");
+        }
+        var joins = new ArrayList<Joined>(targets.size());
+        var firsts = new ArrayList<Joined>();
+        for (int i = 0; i < targets.size(); i++) {
+            var joined = join(targets.get(i), eventListeners.get(i));
+            joins.add(joined);
+            if (joined.first) {
+                firsts.add(joined);
+            }
+        }
 
+        if (!firsts.isEmpty()) {
+            var firstTargets = new ArrayList<Key>(firsts.size());
+            var firstSubscriptions = new ArrayList<Consumer<Event>>(firsts.size());
+            for (var joined : firsts) {
+                firstTargets.add(joined.target);
+                firstSubscriptions.add(joined.active);
+            }
+            try {
+                var closeables = wrapped.subscribeAll(firstTargets, firstSubscriptions);
+                for (int i = 0; i < firsts.size(); i++) {
+                    firsts.get(i).toBeClosed.complete(closeables.get(i));
+                }
+            } catch (IOException | RuntimeException e) {
+                for (var joined : firsts) {
+                    joined.toBeClosed.completeExceptionally(e);
+                }
+            }
+        }
+
+        var result = new ArrayList<Closeable>(joins.size());
+        @Nullable IOException firstFail = null;
+        for (var joined : joins) {
+            try {
+                result.add(joined.await());
+            } catch (IOException e) {
+                if (firstFail == null) {
+                    firstFail = e;
+                }
+            }
+        }
+        if (firstFail != null) {
+            for (var c : result) {
+                c.close();
+            }
+            throw firstFail;
+        }
+        return result;
+    }
 }
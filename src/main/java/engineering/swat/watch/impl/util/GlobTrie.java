@@ -0,0 +1,488 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.util;
+
+import java.io.File;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Set of glob patterns (in the syntax of
+ * {@link java.nio.file.FileSystem#getPathMatcher(String)}, but always with
+ * {@code /} as separator) that is compiled into a single trie over path
+ * segments. Matching a relative path against the whole set is one walk over
+ * the trie along the name elements of the path: literal segments (e.g.,
+ * {@code node_modules}) are looked up by hash as name elements, wildcard
+ * segments (e.g., {@code *.java}) are matched against the name element at
+ * hand, and {@code **} segments match zero or more name elements. Paths are
+ * never converted to strings as a whole; only name elements that reach a
+ * wildcard segment are.
+ *
+ * Note: Unlike path matchers, {@code **} segments also match zero segments
+ * (e.g., {@code **}{@code /.git} matches {@code .git}, and {@code .git/**}
+ * matches {@code .git} itself), which is what include/exclude rules need.
+ *
+ * Instances are immutable, and they can be shared between threads.
+ */
+public class GlobTrie {
+    private static final GlobTrie EMPTY = new GlobTrie(List.of());
+    private static final Path EMPTY_PATH = Path.of("");
+
+    private final List<String> globs;
+    private final Node root = new Node();
+
+    private GlobTrie(List<String> globs) {
+        this.globs = List.copyOf(globs);
+        for (var glob : globs) {
+            for (var expanded : expandBraces(glob)) {
+                insert(root, expanded);
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a glob pattern is invalid, or if it
+     * is absolute
+     */
+    public static GlobTrie compile(List<String> globs) {
+        return globs.isEmpty() ? EMPTY : new GlobTrie(globs);
+    }
+
+    public List<String> getGlobs() {
+        return globs;
+    }
+
+    public boolean isEmpty() {
+        return globs.isEmpty();
+    }
+
+    /**
+     * @return {@code true} iff at least one glob pattern matches `path`
+     */
+    public boolean matches(Path path) {
+        return matches(EMPTY_PATH, path, false);
+    }
+
+    /**
+     * Matches the path `parent/child` without constructing it
+     * @return {@code true} iff at least one glob pattern matches `parent/child`
+     */
+    public boolean matches(Path parent, Path child) {
+        return matches(parent, child, false);
+    }
+
+    /**
+     * Matches the path `parent/child` and all its ancestors without
+     * constructing them (e.g., {@code a/b/c} is matched by {@code a/b})
+     * @return {@code true} iff at least one glob pattern matches `parent/child`
+     * or one of its (non-empty) ancestors
+     */
+    public boolean matchesSelfOrAncestor(Path parent, Path child) {
+        return matches(parent, child, true);
+    }
+
+    private boolean matches(Path parent, Path child, boolean ancestors) {
+        var parentCount = nameCount(parent);
+        var childCount = nameCount(child);
+        var names = new Path[parentCount + childCount];
+        addNames(parent, parentCount, names, 0);
+        addNames(child, childCount, names, parentCount);
+        return match(root, names, 0, ancestors);
+    }
+
+    @Override
+    public String toString() {
+        return globs.toString();
+    }
+
+    // -- Matching --
+    //
+    // The path to match is the sequence of name elements `names` (those of
+    // the parent, followed by those of the child). Position `pos` is the
+    // index of the next name element to match; it equals the number of name
+    // elements when all of them are matched.
+
+    private static int nameCount(Path path) {
+        // The empty path has one (empty) name element
+        return path.equals(EMPTY_PATH) ? 0 : path.getNameCount();
+    }
+
+    private static void addNames(Path path, int count, Path[] names, int offset) {
+        if (count == 1) {
+            // A single name element is used as-is, to avoid allocating a copy
+            names[offset] = path;
+        } else {
+            for (int i = 0; i < count; i++) {
+                names[offset + i] = path.getName(i);
+            }
+        }
+    }
+
+    private static boolean match(Node node, Path[] names, int pos, boolean ancestors) {
+        var count = names.length;
+        if (pos >= count || (ancestors && pos > 0 && node.terminal)) {
+            return node.terminal || matchesEmpty(node);
+        }
+
+        var anyDepth = node.anyDepth;
+        if (anyDepth != null) {
+            for (int p = pos; p <= count; p++) {
+                if (match(anyDepth, names, p, ancestors)) {
+                    return true;
+                }
+            }
+        }
+
+        var name = names[pos];
+        var literal = node.literals.get(name);
+        if (literal != null && match(literal, names, pos + 1, ancestors)) {
+            return true;
+        }
+
+        if (node.wildcards.length > 0) {
+            var segment = name.toString();
+            for (var wildcard : node.wildcards) {
+                if (wildcard.pattern.matches(segment)
+                        && match(wildcard.child, names, pos + 1, ancestors)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesEmpty(Node node) {
+        // Trailing `**` segments also match zero segments
+        var anyDepth = node.anyDepth;
+        return anyDepth != null && (anyDepth.terminal || matchesEmpty(anyDepth));
+    }
+
+    // -- Compilation --
+
+    private static class Node {
+        boolean terminal = false;
+        @Nullable Node anyDepth = null;
+        // Keyed by name element, so lookups don't need the path as a string
+        final Map<Path, Node> literals = new HashMap<>();
+        WildcardEdge[] wildcards = new WildcardEdge[0];
+    }
+
+    private static class WildcardEdge {
+        final String segment;
+        final SegmentPattern pattern;
+        final Node child = new Node();
+
+        WildcardEdge(String segment) {
+            this.segment = segment;
+            this.pattern = new SegmentPattern(segment);
+        }
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == File.separatorChar;
+    }
+
+    private static void insert(Node root, String glob) {
+        if (glob.isEmpty() || isSeparator(glob.charAt(0))) {
+            throw new IllegalArgumentException("Glob patterns should be relative and non-empty: " + glob);
+        }
+        var node = root;
+        for (var segment : splitSegments(glob)) {
+            if (segment.isEmpty()) {
+                throw new IllegalArgumentException("Glob patterns should not contain empty segments: " + glob);
+            }
+            if (segment.equals("**")) {
+                var anyDepth = node.anyDepth;
+                if (anyDepth == null) {
+                    anyDepth = new Node();
+                    node.anyDepth = anyDepth;
+                }
+                node = anyDepth;
+            } else if (isLiteral(segment)) {
+                node = literalChild(node, unescape(segment));
+            } else {
+                node = wildcardChild(node, segment);
+            }
+        }
+        node.terminal = true;
+    }
+
+    private static Node literalChild(Node node, String segment) {
+        Path name;
+        try {
+            name = Path.of(segment);
+        } catch (InvalidPathException e) {
+            name = EMPTY_PATH;
+        }
+        if (nameCount(name) != 1) {
+            // Not a valid name element on this file system, so the rest of
+            // the glob can never match
+            return new Node();
+        }
+        return node.literals.computeIfAbsent(name, n -> new Node());
+    }
+
+    private static Node wildcardChild(Node node, String segment) {
+        for (var edge : node.wildcards) {
+            if (edge.segment.equals(segment)) {
+                return edge.child;
+            }
+        }
+        var edge = new WildcardEdge(segment);
+        var edges = new ArrayList<>(Arrays.asList(node.wildcards));
+        edges.add(edge);
+        node.wildcards = edges.toArray(new WildcardEdge[0]);
+        return edge.child;
+    }
+
+    private static List<String> splitSegments(String glob) {
+        var segments = new ArrayList<String>();
+        var start = 0;
+        var inClass = false;
+        for (int i = 0; i < glob.length(); i++) {
+            var c = glob.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (c == '/' && !inClass) {
+                segments.add(glob.substring(start, i));
+                start = i + 1;
+            }
+        }
+        segments.add(glob.substring(start));
+        return segments;
+    }
+
+    private static boolean isLiteral(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            var c = segment.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '*' || c == '?' || c == '[') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String unescape(String segment) {
+        var result = new StringBuilder(segment.length());
+        for (int i = 0; i < segment.length(); i++) {
+            var c = segment.charAt(i);
+            if (c == '\\') {
+                if (++i == segment.length()) {
+                    throw new IllegalArgumentException("Dangling escape in glob pattern: " + segment);
+                }
+                c = segment.charAt(i);
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Expands the (possibly nested) groups of alternatives in `glob` (e.g.,
+     * {@code *.{java,kt}} is expanded into {@code *.java} and {@code *.kt})
+     */
+    private static List<String> expandBraces(String glob) {
+        var open = -1;
+        var depth = 0;
+        var alternatives = new ArrayList<String>();
+        var start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            var c = glob.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '{') {
+                if (depth++ == 0) {
+                    open = i;
+                    start = i + 1;
+                }
+            } else if (c == ',' && depth == 1) {
+                alternatives.add(glob.substring(start, i));
+                start = i + 1;
+            } else if (c == '}' && depth > 0 && --depth == 0) {
+                alternatives.add(glob.substring(start, i));
+                var prefix = glob.substring(0, open);
+                var suffix = glob.substring(i + 1);
+                var result = new ArrayList<String>();
+                for (var alternative : alternatives) {
+                    result.addAll(expandBraces(prefix + alternative + suffix));
+                }
+                return result;
+            }
+        }
+        if (depth > 0) {
+            throw new IllegalArgumentException("Missing '}' in glob pattern: " + glob);
+        }
+        return List.of(glob);
+    }
+
+    /**
+     * Compiled glob pattern for a single segment (without separators and
+     * groups of alternatives)
+     */
+    private static class SegmentPattern {
+        private static final char ANY_CHARS = 0; // `*`
+        private static final char ANY_CHAR = 1;  // `?`
+        private static final char LITERAL = 2;
+        private static final char CLASS = 3;     // `[...]`
+
+        private final char[] kinds;
+        private final char[] chars;
+        // For each class: pairs of inclusive bounds, preceded by 1 if negated
+        private final char[][] classes;
+
+        SegmentPattern(String segment) {
+            var kinds = new StringBuilder();
+            var chars = new StringBuilder();
+            var classes = new ArrayList<char[]>();
+            for (int i = 0; i < segment.length(); i++) {
+                var c = segment.charAt(i);
+                switch (c) {
+                    case '*':
+                        // Consecutive stars are equivalent to one
+                        if (kinds.length() == 0 || kinds.charAt(kinds.length() - 1) != ANY_CHARS) {
+                            kinds.append(ANY_CHARS);
+                            chars.append(c);
+                        }
+                        break;
+                    case '?':
+                        kinds.append(ANY_CHAR);
+                        chars.append(c);
+                        break;
+                    case '[':
+                        i = parseClass(segment, i, classes);
+                        kinds.append(CLASS);
+                        chars.append((char) (classes.size() - 1));
+                        break;
+                    case '\\':
+                        if (++i == segment.length()) {
+                            throw new IllegalArgumentException("Dangling escape in glob pattern: " + segment);
+                        }
+                        kinds.append(LITERAL);
+                        chars.append(segment.charAt(i));
+                        break;
+                    default:
+                        kinds.append(LITERAL);
+                        chars.append(c);
+                }
+            }
+            this.kinds = kinds.toString().toCharArray();
+            this.chars = chars.toString().toCharArray();
+            this.classes = classes.toArray(new char[0][]);
+        }
+
+        private static int parseClass(String segment, int open, List<char[]> classes) {
+            var bounds = new StringBuilder();
+            var i = open + 1;
+            var negated = i < segment.length() && segment.charAt(i) == '!';
+            bounds.append(negated ? (char) 1 : (char) 0);
+            if (negated) {
+                i++;
+            }
+            for (; i < segment.length() && segment.charAt(i) != ']'; i++) {
+                var lower = segment.charAt(i);
+                if (lower == '\\' && i + 1 < segment.length()) {
+                    lower = segment.charAt(++i);
+                }
+                var upper = lower;
+                if (i + 2 < segment.length() && segment.charAt(i + 1) == '-' && segment.charAt(i + 2) != ']') {
+                    upper = segment.charAt(i + 2);
+                    i += 2;
+                }
+                bounds.append(lower).append(upper);
+            }
+            if (i == segment.length()) {
+                throw new IllegalArgumentException("Missing ']' in glob pattern: " + segment);
+            }
+            classes.add(bounds.toString().toCharArray());
+            return i;
+        }
+
+        private boolean matchesClass(int index, char c) {
+            var bounds = classes[index];
+            var inClass = false;
+            for (int i = 1; i < bounds.length; i += 2) {
+                if (bounds[i] <= c && c <= bounds[i + 1]) {
+                    inClass = true;
+                    break;
+                }
+            }
+            return inClass != (bounds[0] == 1);
+        }
+
+        private boolean matchesOne(int k, char c) {
+            switch (kinds[k]) {
+                case ANY_CHAR: return true;
+                case LITERAL: return chars[k] == c;
+                case CLASS: return matchesClass(chars[k], c);
+                default: return false;
+            }
+        }
+
+        /**
+         * Matches all characters of `segment`, backtracking only to the most
+         * recent star
+         */
+        boolean matches(String segment) {
+            var k = 0;
+            var i = 0;
+            var star = -1;
+            var starMatch = 0;
+            var to = segment.length();
+            while (i < to) {
+                if (k < kinds.length && kinds[k] == ANY_CHARS) {
+                    star = k++;
+                    starMatch = i;
+                } else if (k < kinds.length && matchesOne(k, segment.charAt(i))) {
+                    k++;
+                    i++;
+                } else if (star >= 0) {
+                    k = star + 1;
+                    i = ++starMatch;
+                } else {
+                    return false;
+                }
+            }
+            while (k < kinds.length && kinds[k] == ANY_CHARS) {
+                k++;
+            }
+            return k == kinds.length;
+        }
+    }
+}
@@ -28,9 +28,43 @@ package engineering.swat.watch.impl.util;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
 @FunctionalInterface
 public interface ISubscribable<Key, Event> {
     Closeable subscribe(Key target, Consumer<Event> eventListener) throws IOException;
+
+    /**
+     * Subscribes to all targets at once (the i-th listener listens to the
+     * i-th target). If any subscription fails, then the
+     * successful ones are closed again, and the first failure is thrown. By
+     * default, the targets are subscribed to one by one; implementations can
+     * override this method to subscribe more efficiently.
+     *
+     * @return The closeables of the subscriptions, in the order of
+     * {@code targets}
+     */
+    default List<Closeable> subscribeAll(List<Key> targets, List<Consumer<Event>> eventListeners) throws IOException {
+        if (targets.size() != eventListeners.size()) {
+            throw new IllegalArgumentException("Each target should have exactly one listener");
+        }
+        var result = new ArrayList<Closeable>(targets.size());
+        try {
+            for (int i = 0; i < targets.size(); i++) {
+                result.add(subscribe(targets.get(i), eventListeners.get(i)));
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            for (var c : result) {
+                try {
+                    c.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+    }
 }
@@ -0,0 +1,144 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Executor that runs the tasks for the same key serially, in submission
+ * order, while the tasks for distinct keys run in parallel on a backing
+ * executor. Keys are hashed onto a fixed number of lanes (so distinct keys may
+ * occasionally share a lane, but no key is ever spread over multiple lanes).
+ * Tasks submitted via {@link #execute(Runnable)} (i.e., without a key) all go
+ * to the same lane.
+ */
+public class KeyedSerialExecutor implements Executor {
+    private static final Logger logger = LogManager.getLogger();
+
+    // Maximum number of tasks that a lane runs in one go, before it yields its
+    // thread to other lanes (to avoid starvation of the backing executor)
+    private static final int LANE_BUDGET = 64;
+
+    private final Executor backing;
+    private final Lane[] lanes;
+
+    public KeyedSerialExecutor(Executor backing, int laneCount) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("The number of lanes should be positive");
+        }
+        this.backing = backing;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Returns the executor that runs the tasks for `key` serially
+     */
+    public Executor lane(Object key) {
+        var h = key.hashCode();
+        return lanes[Math.floorMod(h ^ (h >>> 16), lanes.length)];
+    }
+
+    /**
+     * Returns the executor that runs the tasks for `key` serially, if `exec`
+     * is (a lane of) a keyed serial executor, or `exec` itself otherwise
+     */
+    public static Executor laneFor(Executor exec, Object key) {
+        if (exec instanceof KeyedSerialExecutor) {
+            return ((KeyedSerialExecutor) exec).lane(key);
+        }
+        if (exec instanceof Lane) {
+            return ((Lane) exec).owner().lane(key);
+        }
+        return exec;
+    }
+
+    private class Lane implements Executor, Runnable {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        KeyedSerialExecutor owner() {
+            return KeyedSerialExecutor.this;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                try {
+                    backing.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    tasks.clear();
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < LANE_BUDGET; i++) {
+                    var task = tasks.poll();
+                    if (task == null) {
+                        break;
+                    }
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        logger.error("Ignoring downstream exception:", t);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                // Tasks may have been added after the last poll, but before
+                // `scheduled` was reset, so check again
+                schedule();
+            }
+        }
+    }
+
+    // -- Executor --
+
+    @Override
+    public void execute(Runnable task) {
+        lanes[0].execute(task);
+    }
+}
@@ -27,17 +27,42 @@
 package engineering.swat.watch.impl.util;
 
 import java.nio.file.Path;
+import java.util.EnumSet;
 import java.util.Objects;
+import java.util.Set;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import engineering.swat.watch.WatchEvent;
+
 public class SubscriptionKey {
     private final Path path;
     private final boolean recursive;
+    private final Path subtree;
+    private final Set<WatchEvent.Kind> kinds;
 
     public SubscriptionKey(Path path, boolean recursive) {
+        this(path, recursive, path);
+    }
+
+    public SubscriptionKey(Path path, boolean recursive, Path subtree) {
+        this(path, recursive, subtree, EnumSet.allOf(WatchEvent.Kind.class));
+    }
+
+    /**
+     * @param subtree the root of the subtree that {@code path} belongs to.
+     * Subscriptions in the same subtree are expected to be handled together
+     * (e.g., by the same poller). The subtree doesn't affect equality.
+     * @param kinds the kinds of events that the subscriber is interested in.
+     * Subscriptions to the same path with different kinds share the
+     * subscription, so the subscriber may also receive events of other kinds.
+     * The kinds don't affect equality.
+     */
+    public SubscriptionKey(Path path, boolean recursive, Path subtree, Set<WatchEvent.Kind> kinds) {
         this.path = path;
         this.recursive = recursive;
+        this.subtree = subtree;
+        this.kinds = kinds;
     }
 
     public Path getPath() {
@@ -48,6 +73,14 @@ public class SubscriptionKey {
         return recursive;
     }
 
+    public Path getSubtree() {
+        return subtree;
+    }
+
+    public Set<WatchEvent.Kind> getKinds() {
+        return kinds;
+    }
+
     @Override
     public boolean equals(@Nullable Object obj) {
         if (obj instanceof SubscriptionKey) {
@@ -26,11 +26,13 @@
  */
 package engineering.swat.watch;
 
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrowsExactly;
 
 import java.io.IOException;
 import java.nio.file.FileSystemException;
 import java.nio.file.NoSuchFileException;
+import java.util.concurrent.ExecutionException;
 
 import org.awaitility.Awaitility;
 import org.junit.jupiter.api.AfterEach;
@@ -105,5 +107,86 @@ class APIErrorsTests {
         assertThrowsExactly(NoSuchFileException.class, w::start);
     }
 
+    @Test
+    void noStartOnClosedEngine() throws IOException {
+        var engine = WatchEngine.build().start();
+        engine.close();
+        var w = Watch.build(testDir.getTestDirectory(), WatchScope.PATH_AND_CHILDREN, engine).on(e -> {});
+        assertThrowsExactly(IOException.class, w::start);
+    }
+
+    @Test
+    void defaultEngineCannotBeClosed() {
+        assertThrowsExactly(UnsupportedOperationException.class, () -> WatchEngine.getDefault().close());
+    }
+
+    @Test
+    void nonExistingDirectoryAsync() throws IOException {
+        var nonExistingDir = testDir.getTestDirectory().resolve("test-not-existing");
+        var w = Watch.build(nonExistingDir, WatchScope.PATH_AND_CHILDREN).on(e -> {});
+        var e = assertThrowsExactly(ExecutionException.class, () -> w.startAsync().get());
+        assertInstanceOf(NoSuchFileException.class, e.getCause());
+    }
+
+    @Test
+    void onAndOnBatchAreExclusive() {
+        assertThrowsExactly(IllegalArgumentException.class, () ->
+            Watch
+                .build(testDir.getTestDirectory(), WatchScope.PATH_AND_CHILDREN)
+                .on(ev -> {})
+                .onBatch(evs -> {})
+        );
+    }
+
+    @Test
+    void filterShouldAcceptSomeKind() {
+        assertThrowsExactly(IllegalArgumentException.class, () ->
+            WatchFilter.all().withKinds()
+        );
+    }
+
+    @Test
+    void onlyRecursiveWatchesCanBeLimitedInDepth() {
+        assertThrowsExactly(IllegalArgumentException.class, () ->
+            Watch
+                .build(testDir.getTestDirectory(), WatchScope.PATH_AND_CHILDREN)
+                .withMaxDepth(2)
+        );
+        assertThrowsExactly(IllegalArgumentException.class, () ->
+            Watch
+                .build(testDir.getTestDirectory(), WatchScope.PATH_AND_ALL_DESCENDANTS)
+                .withMaxDepth(0)
+        );
+    }
+
+    @Test
+    void filterCannotBeSetTwice() {
+        assertThrowsExactly(IllegalArgumentException.class, () ->
+            Watch
+                .build(testDir.getTestDirectory(), WatchScope.PATH_AND_CHILDREN)
+                .filter(WatchFilter.all().withKinds(WatchEvent.Kind.CREATED))
+                .filter(WatchFilter.all().withKinds(WatchEvent.Kind.DELETED))
+        );
+    }
+
+    @Test
+    void doNotStartAsyncWithoutEventHandler() {
+        assertThrowsExactly(IllegalStateException.class, () ->
+            Watch
+                .build(testDir.getTestDirectory(), WatchScope.PATH_AND_CHILDREN)
+                .startAsync()
+        );
+    }
+
+    @Test
+    void onlyQueuedWatchesCanBeStartedQueued() {
+        assertThrowsExactly(IllegalStateException.class, () ->
+            Watch
+                .build(testDir.getTestDirectory(), WatchScope.PATH_AND_CHILDREN)
+                .on(e -> {})
+                .startQueued()
+        );
+    }
+
 
 }
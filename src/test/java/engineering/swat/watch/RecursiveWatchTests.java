@@ -28,12 +28,16 @@ package engineering.swat.watch;
 
 import static engineering.swat.watch.WatchEvent.Kind.CREATED;
 import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
@@ -126,6 +130,134 @@ class RecursiveWatchTests {
 
     }
 
+    @Test
+    void excludedPathsAreNotReported() throws IOException {
+        var accepted = Path.of("a", "b", "accepted.txt");
+        var seenAccepted = new AtomicBoolean(false);
+        var seenRejected = new AtomicBoolean(false);
+        var watcher = Watch.build(testDir.getTestDirectory(), WatchScope.PATH_AND_ALL_DESCENDANTS)
+            .filter(WatchFilter.all().withIncludes("**/*.txt").withExcludes("**/ignored"))
+            .on(ev -> {
+                logger.debug("Seen event: {}", ev);
+                if (ev.getRelativePath().equals(accepted)) {
+                    seenAccepted.set(true);
+                } else if (ev.getKind() != Kind.OVERFLOW) { // Overflows are reported for new directories
+                    seenRejected.set(true);
+                }
+            });
+
+        try (var w = watcher.start()) {
+            var root = testDir.getTestDirectory();
+            Files.createDirectories(root.resolve("ignored"));
+            Files.writeString(root.resolve("ignored").resolve("x.txt"), "Hello World");
+            Files.createDirectories(root.resolve(Path.of("a", "ignored")));
+            Files.writeString(root.resolve(Path.of("a", "ignored", "y.txt")), "Hello World");
+            Files.writeString(root.resolve(Path.of("a", "z.log")), "Hello World");
+            Files.createDirectories(root.resolve(accepted).getParent());
+            Files.writeString(root.resolve(accepted), "Hello World");
+            await("Included path is seen").untilTrue(seenAccepted);
+            assertFalse(seenRejected.get(), "Excluded paths should not be reported");
+        }
+    }
+
+    @Test
+    void deeperPathsAreNotReported() throws IOException {
+        var parent = testDir.getTestDirectory();
+        var shallow = Path.of("p", "shallow.txt");
+        var deep = Path.of("p", "q", "deep.txt");
+        var bookkeeper = new TestHelper.Bookkeeper();
+        var watchConfig = Watch.build(parent, WatchScope.PATH_AND_ALL_DESCENDANTS)
+            .withMaxDepth(2)
+            .on(bookkeeper);
+
+        try (var watch = (EventHandlingWatch) watchConfig.start()) {
+            Files.createDirectories(parent.resolve(deep).getParent());
+            Files.writeString(parent.resolve(deep), "Hello World");
+            Files.writeString(parent.resolve(shallow), "Hello World");
+            await("Shallow path is seen")
+                .until(() -> bookkeeper.events().kind(CREATED).rootPath(parent).relativePath(shallow).any());
+
+            // The rescan after an overflow is limited in depth as well
+            bookkeeper.reset();
+            watch.handleEvent(new WatchEvent(WatchEvent.Kind.OVERFLOW, parent));
+            await("Shallow path is rescanned")
+                .until(() -> bookkeeper.events().kind(CREATED).rootPath(parent).relativePath(shallow).any());
+            await("Deep path isn't seen: " + bookkeeper)
+                .pollDelay(TestHelper.TINY_WAIT)
+                .until(() -> bookkeeper.events().rootPath(parent).relativePath(deep).none());
+        }
+    }
+
+    @Test
+    void overflowsAreRescannedOncePerSubtree() throws IOException, InterruptedException {
+        var parent = testDir.getTestDirectory();
+        var file = Path.of("r", "s", "t", "file.txt");
+        Files.createDirectories(parent.resolve(file).getParent());
+        Files.writeString(parent.resolve(file), "Hello World");
+
+        var overflows = new AtomicInteger();
+        var creations = new AtomicInteger();
+        var watchConfig = Watch.build(parent, WatchScope.PATH_AND_ALL_DESCENDANTS)
+            .onOverflow(Approximation.ALL)
+            .on(ev -> {
+                if (ev.getKind() == Kind.OVERFLOW) {
+                    overflows.incrementAndGet();
+                } else if (ev.getKind() == CREATED && ev.getRelativePath().equals(file)) {
+                    creations.incrementAndGet();
+                }
+            });
+
+        try (var watch = (EventHandlingWatch) watchConfig.start()) {
+            watch.handleEvent(new WatchEvent(WatchEvent.Kind.OVERFLOW, parent));
+            await("Nested file is rescanned").until(() -> creations.get() > 0);
+            Thread.sleep(TestHelper.TINY_WAIT.toMillis());
+            assertEquals(1, overflows.get(), "A single overflow should be reported");
+            assertEquals(1, creations.get(), "The nested file should be rescanned once");
+        }
+    }
+
+    @Test
+    void overflowsDuringTheRescanOfTheirSubtreeAreSuppressed() throws IOException, InterruptedException {
+        var parent = testDir.getTestDirectory();
+        var file = Path.of("r", "s", "t", "file.txt");
+        Files.createDirectories(parent.resolve(file).getParent());
+        Files.writeString(parent.resolve(file), "Hello World");
+
+        var overflows = new AtomicInteger();
+        var creations = new AtomicInteger();
+        var watchRef = new AtomicReference<EventHandlingWatch>();
+        // The second overflow needs a thread of its own to be handled during the rescan
+        var pool = Executors.newCachedThreadPool();
+        var watchConfig = Watch.build(parent, WatchScope.PATH_AND_ALL_DESCENDANTS)
+            .withExecutor(pool)
+            .onOverflow(Approximation.ALL)
+            .on(ev -> {
+                if (ev.getKind() == Kind.OVERFLOW) {
+                    overflows.incrementAndGet();
+                } else if (ev.getKind() == CREATED && ev.getRelativePath().equals(file)
+                        && creations.incrementAndGet() == 1) {
+                    // Overflow again while the first rescan is still running
+                    watchRef.get().handleEvent(new WatchEvent(WatchEvent.Kind.OVERFLOW, parent));
+                    try {
+                        Thread.sleep(TestHelper.TINY_WAIT.toMillis());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+        try (var watch = (EventHandlingWatch) watchConfig.start()) {
+            watchRef.set(watch);
+            watch.handleEvent(new WatchEvent(WatchEvent.Kind.OVERFLOW, parent));
+            await("Nested file is rescanned").until(() -> creations.get() > 0);
+            Thread.sleep(TestHelper.SHORT_WAIT.toMillis());
+            assertEquals(1, overflows.get(), "The second overflow should be suppressed");
+            assertEquals(1, creations.get(), "The nested file should be rescanned once");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     @Test
     void deleteOfFileInDirectoryShouldBeVisible() throws IOException {
         var target = testDir.getTestFiles()
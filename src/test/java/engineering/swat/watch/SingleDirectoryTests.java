@@ -31,10 +31,14 @@ import static engineering.swat.watch.WatchEvent.Kind.DELETED;
 import static engineering.swat.watch.WatchEvent.Kind.MODIFIED;
 import static engineering.swat.watch.WatchEvent.Kind.OVERFLOW;
 import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.awaitility.Awaitility;
@@ -66,6 +70,95 @@ class SingleDirectoryTests {
         Awaitility.setDefaultTimeout(TestHelper.NORMAL_WAIT);
     }
 
+    @Test
+    void pendingEventsAreCollapsedIntoOverflow() throws IOException, InterruptedException {
+        var directory = testDir.getTestDirectory();
+        var seenOverflow = new AtomicBoolean(false);
+        var seenCreate = new AtomicBoolean(false);
+        var release = new CountDownLatch(1);
+        try (var engine = WatchEngine.build().withHandlerThreads(1).withMaxPendingEvents(4).start()) {
+            var watchConfig = Watch.build(directory, WatchScope.PATH_AND_CHILDREN, engine)
+                .onOverflow(Approximation.ALL)
+                .onBatch(evs -> {
+                    try {
+                        release.await(); // Block the only handler thread, so events pile up
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    for (var ev : evs) {
+                        if (ev.getKind() == OVERFLOW) {
+                            seenOverflow.set(true);
+                        }
+                        if (ev.getKind() == CREATED && ev.getFileName() != null && ev.getFileName().toString().equals("late.txt")) {
+                            seenCreate.set(true);
+                        }
+                    }
+                });
+
+            try (var watch = watchConfig.start()) {
+                for (int i = 0; i < 100; i++) {
+                    Files.writeString(directory.resolve("file" + i + ".txt"), "Hello world");
+                    Thread.sleep(1); // Spread the events over multiple polls
+                }
+                Files.writeString(directory.resolve("late.txt"), "Hello world");
+                Thread.sleep(TestHelper.SHORT_WAIT.toMillis());
+                release.countDown();
+                await("Pending events should be collapsed into an overflow").untilTrue(seenOverflow);
+                await("The overflow should be approximated").untilTrue(seenCreate);
+            }
+        }
+    }
+
+    @Test
+    void filteredEventsAreNotPassed() throws IOException {
+        var directory = testDir.getTestDirectory();
+        var seenAccepted = new AtomicBoolean(false);
+        var seenRejected = new AtomicBoolean(false);
+        var watchConfig = Watch.build(directory, WatchScope.PATH_AND_CHILDREN)
+            .filter(WatchFilter.all().withKinds(CREATED).withFileNames("*.txt").onlyFiles())
+            .on(ev -> {
+                var fileName = ev.getFileName();
+                if (ev.getKind() == CREATED && fileName != null && fileName.toString().equals("accepted.txt")) {
+                    seenAccepted.set(true);
+                } else {
+                    seenRejected.set(true);
+                }
+            });
+
+        try (var watch = watchConfig.start()) {
+            Files.writeString(directory.resolve("rejected.log"), "Hello world");
+            Files.createDirectory(directory.resolve("rejected.txt"));
+            Files.writeString(testDir.getTestFiles().get(0), "Hello world");
+            Files.writeString(directory.resolve("accepted.txt"), "Hello world");
+            await("Accepted file creation should generate create event")
+                .untilTrue(seenAccepted);
+            assertFalse(seenRejected.get(), "Rejected events should not be passed");
+        }
+    }
+
+    @Test
+    void overflowsPassFileNameFilters() throws IOException {
+        var directory = testDir.getTestDirectory();
+        var filter = WatchFilter.all().withFileNames("*.java");
+        assertTrue(filter.test(new WatchEvent(OVERFLOW, directory)));
+        assertTrue(filter.test(new WatchEvent(OVERFLOW, directory, Path.of("d1"))));
+
+        var seenOverflow = new AtomicBoolean(false);
+        var watchConfig = Watch.build(directory, WatchScope.PATH_AND_CHILDREN)
+            .filter(filter)
+            .on(ev -> {
+                if (ev.getKind() == OVERFLOW) {
+                    seenOverflow.set(true);
+                }
+            });
+
+        try (var watch = watchConfig.start()) {
+            ((EventHandlingWatch) watch).handleEvent(new WatchEvent(OVERFLOW, directory));
+            await("Overflows of the watched directory should pass file name filters")
+                .untilTrue(seenOverflow);
+        }
+    }
+
     @Test
     void deleteOfFileInDirectoryShouldBeVisible() throws IOException {
         var target = testDir.getTestFiles().get(0);
@@ -125,6 +218,27 @@ class SingleDirectoryTests {
         }
     }
 
+    @Test
+    void eventsCarryTheirSourceAndSequence() throws IOException, InterruptedException {
+        var directory = testDir.getTestDirectory();
+        var events = new ConcurrentLinkedQueue<WatchEvent>();
+        var watchConfig = Watch.build(directory, WatchScope.PATH_AND_CHILDREN)
+            .onOverflow(Approximation.ALL)
+            .on(events::add);
+
+        try (var watch = watchConfig.start()) {
+            var before = System.nanoTime();
+            Files.writeString(directory.resolve("a.txt"), "foo");
+            await("Native event").until(() -> events.stream().anyMatch(e ->
+                e.getSource() == WatchEvent.Source.NATIVE && e.getTimestamp() >= before));
+
+            var lastNative = events.stream().mapToLong(WatchEvent::getSequence).max().orElseThrow();
+            ((EventHandlingWatch) watch).handleEvent(new WatchEvent(OVERFLOW, directory));
+            await("Synthetic events after the native ones").until(() -> events.stream().anyMatch(e ->
+                e.getKind() == CREATED && e.getSource() == WatchEvent.Source.SYNTHETIC && e.getSequence() > lastNative));
+        }
+    }
+
     @Test
     void memorylessRescanOnOverflow() throws IOException, InterruptedException {
         var directory = testDir.getTestDirectory();
@@ -29,16 +29,33 @@ package engineering.swat.watch;
 
 import static engineering.swat.watch.WatchEvent.Kind.*;
 import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.awaitility.Awaitility;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
 
 
 class SmokeTests {
@@ -92,6 +109,331 @@ class SmokeTests {
         }
     }
 
+    @Test
+    void watchDirectoryAsync() throws Exception {
+        var changed = new AtomicBoolean(false);
+        var target = testDir.getTestFiles().get(0);
+        var watchConfig = Watch.build(testDir.getTestDirectory(), WatchScope.PATH_AND_ALL_DESCENDANTS)
+            .on(ev -> {if (ev.getKind() == MODIFIED && ev.calculateFullPath().equals(target)) { changed.set(true); }})
+            ;
+
+        try (var activeWatch = watchConfig.startAsync().get(TestHelper.NORMAL_WAIT.toMillis(), TimeUnit.MILLISECONDS)) {
+            Files.writeString(target, "Hello world");
+            await("Target file change").untilTrue(changed);
+        }
+    }
+
+    @Test
+    void watchDirectoryInBatches() throws IOException {
+        var changed = new AtomicBoolean(false);
+        var target = testDir.getTestFiles().get(0);
+        var watchConfig = Watch.build(testDir.getTestDirectory(), WatchScope.PATH_AND_ALL_DESCENDANTS)
+            .onBatch(evs -> {if (evs.stream().anyMatch(ev -> ev.getKind() == MODIFIED && ev.calculateFullPath().equals(target))) { changed.set(true); }})
+            ;
+
+        try (var activeWatch = watchConfig.start()) {
+            Files.writeString(target, "Hello world");
+            await("Target file change").untilTrue(changed);
+        }
+    }
+
+    @Test
+    void watchDirectoryWithCoalescing() throws IOException, InterruptedException {
+        var dir = testDir.getTestDirectory();
+        var written = dir.resolve("written.txt"); // Created and modified
+        var removed = dir.resolve("removed.txt"); // Created and deleted
+        var events = new ConcurrentLinkedQueue<WatchEvent>();
+        var watchConfig = Watch.build(dir, WatchScope.PATH_AND_CHILDREN)
+            .withCoalescing(TestHelper.SHORT_WAIT)
+            .on(ev -> {
+                var path = ev.calculateFullPath();
+                if (path.equals(written) || path.equals(removed)) {
+                    events.add(ev);
+                }
+            });
+
+        try (var activeWatch = watchConfig.start()) {
+            Files.writeString(written, "Hello world");
+            Files.writeString(removed, "Hello world");
+            Files.delete(removed);
+            await("Coalesced creation").until(() -> !events.isEmpty());
+            Thread.sleep(TestHelper.SHORT_WAIT.toMillis());
+            assertEquals(1, events.size(), () -> "Only the net effect should be reported: " + events);
+            var event = events.peek();
+            assertEquals(CREATED, event.getKind());
+            assertEquals(written, event.calculateFullPath());
+        }
+    }
+
+    @Test
+    void watchDirectoryWithOrderedDelivery() throws IOException, InterruptedException {
+        var dir = testDir.getTestDirectory();
+        var files = new ArrayList<Path>();
+        for (int i = 0; i < 5; i++) {
+            files.add(dir.resolve("ordered" + i + ".txt"));
+        }
+        var created = new ConcurrentLinkedQueue<Path>();
+        var active = new AtomicInteger();
+        var overlapped = new AtomicBoolean(false);
+        var pool = Executors.newFixedThreadPool(4);
+        var watchConfig = Watch.build(dir, WatchScope.PATH_AND_CHILDREN)
+            .withExecutor(pool)
+            .withOrderedDelivery()
+            .on(ev -> {
+                if (active.incrementAndGet() > 1) {
+                    overlapped.set(true);
+                }
+                try {
+                    if (ev.getKind() == CREATED) {
+                        created.add(ev.calculateFullPath());
+                    }
+                    Thread.sleep(50); // Give later batches the chance to overtake this one
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    active.decrementAndGet();
+                }
+            });
+
+        try (var activeWatch = watchConfig.start()) {
+            for (var file : files) {
+                Files.createFile(file);
+                Thread.sleep(20); // Spread the creations over several batches
+            }
+            await("All creations").until(() -> created.size() == files.size());
+            assertEquals(files, new ArrayList<>(created), "Events should be handled in order");
+            assertFalse(overlapped.get(), "Events of the same directory should be handled serially");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void watchDirectoryWithFlyweightEvents() throws IOException {
+        var target = testDir.getTestFiles().get(0);
+        var other = testDir.getTestFiles().get(1);
+        var flyweights = new AtomicBoolean(false);
+        var retained = new AtomicReference<@Nullable WatchEvent>();
+        var otherChanged = new AtomicBoolean(false);
+        try (var engine = WatchEngine.build().withFlyweightEvents().start()) {
+            var watchConfig = Watch.build(testDir.getTestDirectory(), WatchScope.PATH_AND_ALL_DESCENDANTS, engine)
+                .on(ev -> {
+                    if (ev.getKind() != MODIFIED) {
+                        return;
+                    }
+                    var copy = ev.copy();
+                    // Regular events are their own copies, reused ones are not
+                    if (copy != ev) {
+                        flyweights.set(true);
+                    }
+                    if (copy.calculateFullPath().equals(target)) {
+                        retained.compareAndSet(null, copy);
+                    } else if (copy.calculateFullPath().equals(other)) {
+                        otherChanged.set(true);
+                    }
+                });
+
+            try (var activeWatch = watchConfig.start()) {
+                Files.writeString(target, "Hello world");
+                await("Target file change").until(() -> retained.get() != null);
+                Files.writeString(other, "Hello world");
+                await("Other file change").untilTrue(otherChanged);
+            }
+        }
+        assertTrue(flyweights.get(), "The handler should be passed reused events");
+        var event = retained.get();
+        assertNotNull(event);
+        assertEquals(MODIFIED, event.getKind());
+        assertEquals(target, event.calculateFullPath(), "Copies should survive later events");
+    }
+
+    @Test
+    void watchDirectoryWithMultipleHandlers() throws IOException {
+        var modified = new AtomicBoolean(false);
+        var created = new AtomicBoolean(false);
+        var target = testDir.getTestFiles().get(0);
+        var pool = Executors.newSingleThreadExecutor();
+        try {
+            var watchConfig = Watch.build(testDir.getTestDirectory(), WatchScope.PATH_AND_ALL_DESCENDANTS)
+                .filter(WatchFilter.all().withKinds(MODIFIED))
+                .on(ev -> {if (ev.calculateFullPath().equals(target)) { modified.set(true); }})
+                .addHandler(ev -> {if (ev.getFileName() != null && ev.getFileName().toString().equals("new.txt")) { created.set(true); }},
+                    WatchFilter.all().withKinds(CREATED), pool)
+                ;
+
+            try (var activeWatch = watchConfig.start()) {
+                Files.writeString(target, "Hello world");
+                Files.writeString(testDir.getTestDirectory().resolve("new.txt"), "Hello world");
+                await("Target file change").untilTrue(modified);
+                await("New file creation").untilTrue(created);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void watchDirectoryAsPublisher() throws IOException {
+        var changed = new AtomicBoolean(false);
+        var completed = new AtomicBoolean(false);
+        var target = testDir.getTestFiles().get(0);
+        var watchConfig = Watch.build(testDir.getTestDirectory(), WatchScope.PATH_AND_CHILDREN);
+        watchConfig.toPublisher().subscribe(new Flow.Subscriber<WatchEvent>() {
+            private Flow.@Nullable Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(WatchEvent ev) {
+                if (ev.getKind() == MODIFIED && ev.calculateFullPath().equals(target)) {
+                    changed.set(true);
+                }
+                if (subscription != null) {
+                    subscription.request(1);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {}
+
+            @Override
+            public void onComplete() {
+                completed.set(true);
+            }
+        });
+
+        try (var activeWatch = watchConfig.start()) {
+            Files.writeString(target, "Hello world");
+            await("Target file change").untilTrue(changed);
+        }
+        await("Completion on close").untilTrue(completed);
+    }
+
+    @Test
+    void watchDirectoryByPolling() throws IOException, InterruptedException {
+        var target = testDir.getTestFiles().get(0);
+        var watchConfig = Watch.build(testDir.getTestDirectory(), WatchScope.PATH_AND_CHILDREN)
+            .queued();
+
+        try (var activeWatch = watchConfig.startQueued()) {
+            Files.writeString(target, "Hello world");
+            var deadline = System.nanoTime() + TestHelper.NORMAL_WAIT.toNanos();
+            var changed = false;
+            while (!changed && System.nanoTime() < deadline) {
+                var ev = activeWatch.poll(100, TimeUnit.MILLISECONDS);
+                changed = ev != null && ev.getKind() == MODIFIED && ev.calculateFullPath().equals(target);
+            }
+            assertTrue(changed, "Target file change");
+        }
+    }
+
+    @Test
+    void queuedWatchesRunOtherHandlersOnTheExecutor() throws IOException, InterruptedException {
+        var target = testDir.getTestFiles().get(0);
+        var handlerThread = new AtomicReference<@Nullable Thread>();
+        var pool = Executors.newSingleThreadExecutor();
+        try {
+            var poolThread = pool.submit(Thread::currentThread).get();
+            var watchConfig = Watch.build(testDir.getTestDirectory(), WatchScope.PATH_AND_CHILDREN)
+                .withExecutor(pool)
+                .queued()
+                .addHandler(ev -> handlerThread.compareAndSet(null, Thread.currentThread()), WatchFilter.all());
+
+            try (var activeWatch = watchConfig.startQueued()) {
+                Files.writeString(target, "Hello world");
+                await("Additional handler").until(() -> handlerThread.get() != null);
+                assertSame(poolThread, handlerThread.get(), "Additional handlers should not run on the poller");
+                assertNotNull(activeWatch.poll(TestHelper.NORMAL_WAIT.toMillis(), TimeUnit.MILLISECONDS));
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void watchDirectoryOnSeparateEngine() throws IOException {
+        var changed = new AtomicBoolean(false);
+        var target = testDir.getTestFiles().get(0);
+        try (var engine = WatchEngine.build().withShards(2).withHandlerThreads(1).start()) {
+            var watchConfig = Watch.build(testDir.getTestDirectory(), WatchScope.PATH_AND_ALL_DESCENDANTS, engine)
+                .on(ev -> {if (ev.getKind() == MODIFIED && ev.calculateFullPath().equals(target)) { changed.set(true); }})
+                ;
+
+            try (var activeWatch = watchConfig.start()) {
+                Files.writeString(target, "Hello world");
+                await("Target file change").untilTrue(changed);
+            }
+            assertTrue(engine.getPollerStatistics().getTurns() > 0, "Poller statistics should be recorded");
+        }
+    }
+
+    @Test
+    @EnabledOnOs(OS.LINUX) // Where recursive watches are simulated
+    void watchDirectoryWithParallelTreeStart() throws IOException {
+        var dir = testDir.getTestDirectory();
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                Files.createDirectories(dir.resolve("p" + i).resolve("p" + j));
+            }
+        }
+        var target = Files.createFile(dir.resolve("p3").resolve("p3").resolve("deep.txt"));
+        long directories;
+        try (var files = Files.walk(dir)) {
+            directories = files.filter(Files::isDirectory).count();
+        }
+
+        var changed = new AtomicBoolean(false);
+        try (var engine = WatchEngine.build().withTreeStartParallelism(4).start()) {
+            var watchConfig = Watch.build(dir, WatchScope.PATH_AND_ALL_DESCENDANTS, engine)
+                .on(ev -> {if (ev.getKind() == MODIFIED && ev.calculateFullPath().equals(target)) { changed.set(true); }})
+                ;
+
+            try (var activeWatch = watchConfig.start()) {
+                // The whole tree is registered by the time the watch has started
+                assertEquals(directories, activeWatch.getRegisteredDirectoryCount());
+                assertEquals(0, activeWatch.getScannedDirectoryCount());
+                Files.writeString(target, "Hello world");
+                await("Nested file change").untilTrue(changed);
+            }
+        }
+    }
+
+    private static boolean isVirtual(Thread thread) {
+        try {
+            return (boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false; // Before Java 21, all threads are platform threads
+        }
+    }
+
+    @Test
+    void watchDirectoryWithVirtualThreads() throws IOException {
+        // Falls back to platform threads when the JVM doesn't support virtual threads
+        var supported = DaemonThreadPool.buildVirtualFactory("JavaWatch-test") != null;
+        var handlerThread = new AtomicReference<@Nullable Thread>();
+        var target = testDir.getTestFiles().get(0);
+        try (var engine = WatchEngine.build().withVirtualThreads().start()) {
+            var watchConfig = Watch.build(testDir.getTestDirectory(), WatchScope.PATH_AND_CHILDREN, engine)
+                .on(ev -> {if (ev.getKind() == MODIFIED && ev.calculateFullPath().equals(target)) { handlerThread.compareAndSet(null, Thread.currentThread()); }})
+                ;
+
+            try (var activeWatch = watchConfig.start()) {
+                Files.writeString(target, "Hello world");
+                await("Target file change").until(() -> handlerThread.get() != null);
+            }
+        }
+        var thread = handlerThread.get();
+        assertNotNull(thread);
+        assertTrue(thread.getName().startsWith("JavaWatch-internal-handler-"), thread.getName());
+        assertEquals(supported, isVirtual(thread), "The handler should run on a virtual thread iff they're supported");
+    }
+
     @Test
     void watchSingleFile() throws IOException {
         var changed = new AtomicBoolean(false);
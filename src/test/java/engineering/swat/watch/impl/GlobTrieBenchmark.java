@@ -0,0 +1,96 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
+import java.util.function.Predicate;
+
+import engineering.swat.watch.impl.util.GlobTrie;
+
+/**
+ * Benchmark of the time per path, and the number of bytes allocated per path,
+ * to match the globs and paths of {@link GlobTrieTests} as a compiled glob
+ * trie and as a list of path matchers. This isn't a test (timings and
+ * allocation counts depend on the machine, the JIT, and the JVM), so it isn't
+ * run by the build. Run it after {@code mvn test-compile} with:
+ *
+ * <pre>
+ * mvn -q dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *     engineering.swat.watch.impl.GlobTrieBenchmark
+ * </pre>
+ */
+public class GlobTrieBenchmark {
+    private static final int WARMUP_ROUNDS = 20_000;
+    private static final int ROUNDS = 20_000;
+
+    private static long[] sink = new long[1];
+
+    /**
+     * Measures the time per path (in nanoseconds), and the number of bytes
+     * allocated (by the current thread) per path, to match all paths
+     */
+    private static double[] measure(Predicate<Path> matcher) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var paths = GlobTrieTests.PATHS;
+        for (int r = 0; r < WARMUP_ROUNDS; r++) {
+            for (int i = 0; i < paths.size(); i++) {
+                sink[0] += matcher.test(paths.get(i)) ? 1 : 0;
+            }
+        }
+
+        var allocatedBefore = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        var start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < paths.size(); i++) {
+                sink[0] += matcher.test(paths.get(i)) ? 1 : 0;
+            }
+        }
+        var nanos = System.nanoTime() - start;
+        var allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+
+        var matches = (double) ROUNDS * paths.size();
+        return new double[] { nanos / matches, allocated / matches };
+    }
+
+    public static void main(String[] args) {
+        // All globs but the catch-all, so matching doesn't stop early
+        var globs = GlobTrieTests.GLOBS.subList(0, GlobTrieTests.GLOBS.size() - 1);
+        var trie = GlobTrie.compile(globs);
+        List<PathMatcher> matchers = GlobTrieTests.pathMatchers(globs);
+
+        var compiled = measure(trie::matches);
+        var pathMatchers = measure(p -> GlobTrieTests.anyMatches(matchers, p));
+        System.out.printf("Nanoseconds per path for %d globs: %.1f (compiled), %.1f (path matchers)%n",
+            globs.size(), compiled[0], pathMatchers[0]);
+        System.out.printf("Allocated bytes per path: %.2f (compiled), %.2f (path matchers)%n",
+            compiled[1], pathMatchers[1]);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrowsExactly;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import engineering.swat.watch.impl.util.GlobTrie;
+
+class GlobTrieTests {
+    static final List<String> GLOBS = List.of(
+        "**/.git/**", "**/node_modules/**", "**/target/**", "**/*.swp", "**/*~",
+        "**/.#*", "build/*.{class,jar}", "src/**/[A-Z]*Tests.java", "docs/?.md",
+        "**/[!a-m]*.log", "a/**/b/**/c", "**");
+
+    static final List<Path> PATHS = List.of(
+        Path.of("src/main/java/Foo.java"), Path.of("src/test/java/FooTests.java"),
+        Path.of("src/test/java/fooTests.java"), Path.of(".git/objects/ab/cdef"),
+        Path.of("x/node_modules/y/index.js"), Path.of("node_modules"), Path.of("target/classes/A.class"),
+        Path.of("build/A.class"), Path.of("build/lib/A.jar"), Path.of("build/A.jar"),
+        Path.of("notes.txt.swp"), Path.of("dir/notes.txt~"), Path.of("dir/.#notes.txt"),
+        Path.of("docs/a.md"), Path.of("docs/ab.md"), Path.of("logs/z.log"), Path.of("logs/b.log"),
+        Path.of("a/b/c"), Path.of("a/x/b/y/c"), Path.of("a/c"), Path.of("a/b/x/c/d"));
+
+    static List<PathMatcher> pathMatchers(List<String> globs) {
+        var matchers = new ArrayList<PathMatcher>();
+        for (var glob : globs) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+        return matchers;
+    }
+
+    /**
+     * Path matchers require at least one segment for a {@code **} segment,
+     * while compiled globs also allow zero segments, so the equivalent of a
+     * compiled glob is a set of path matchers: one for each way to drop
+     * {@code **} segments
+     */
+    private static List<PathMatcher> equivalentPathMatchers(List<String> globs) {
+        var variants = new ArrayList<String>();
+        for (var glob : globs) {
+            addVariants(glob, 0, variants);
+        }
+        return pathMatchers(variants);
+    }
+
+    private static void addVariants(String glob, int from, List<String> variants) {
+        var i = glob.indexOf("**", from);
+        if (i < 0) {
+            variants.add(glob);
+            return;
+        }
+        addVariants(glob, i + 2, variants);
+        if (glob.startsWith("**/", i)) {
+            addVariants(glob.substring(0, i) + glob.substring(i + 3), i, variants);
+        } else if (i > 0 && glob.charAt(i - 1) == '/' && i + 2 == glob.length()) {
+            addVariants(glob.substring(0, i - 1), i - 1, variants);
+        }
+    }
+
+    static boolean anyMatches(List<PathMatcher> matchers, Path path) {
+        for (var m : matchers) {
+            if (m.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    void matchesLikePathMatchers() {
+        // Each glob on its own, and all (but the catch-all) together
+        var globSets = new ArrayList<List<String>>();
+        for (var glob : GLOBS) {
+            globSets.add(List.of(glob));
+        }
+        globSets.add(GLOBS.subList(0, GLOBS.size() - 1));
+
+        for (var globs : globSets) {
+            var trie = GlobTrie.compile(globs);
+            var matchers = equivalentPathMatchers(globs);
+            for (var path : PATHS) {
+                assertEquals(anyMatches(matchers, path), trie.matches(path), globs + " on " + path);
+            }
+        }
+    }
+
+    @Test
+    void matchesParentAndChildWithoutConcatenation() {
+        var trie = GlobTrie.compile(List.of("src/**/*.java"));
+        assertTrue(trie.matches(Path.of("src/main"), Path.of("Foo.java")));
+        assertTrue(trie.matches(Path.of("src"), Path.of("main/Foo.java")));
+        assertTrue(trie.matches(Path.of(""), Path.of("src/Foo.java")));
+        assertFalse(trie.matches(Path.of("src/main"), Path.of("Foo.txt")));
+        assertFalse(trie.matches(Path.of("test/main"), Path.of("Foo.java")));
+    }
+
+    @Test
+    void matchesAncestors() {
+        var trie = GlobTrie.compile(List.of("**/node_modules", ".git"));
+        assertTrue(trie.matchesSelfOrAncestor(Path.of(""), Path.of("node_modules")));
+        assertTrue(trie.matchesSelfOrAncestor(Path.of("x/node_modules/y"), Path.of("index.js")));
+        assertTrue(trie.matchesSelfOrAncestor(Path.of(".git"), Path.of("objects/ab")));
+        assertFalse(trie.matchesSelfOrAncestor(Path.of("x/node_modules_old"), Path.of("index.js")));
+        assertFalse(trie.matchesSelfOrAncestor(Path.of("x/.git"), Path.of("config")));
+        assertFalse(trie.matches(Path.of("x/node_modules/y"), Path.of("index.js")));
+    }
+
+    @Test
+    void invalidGlobsAreRejected() {
+        assertThrowsExactly(IllegalArgumentException.class, () -> GlobTrie.compile(List.of("/abs/*.java")));
+        assertThrowsExactly(IllegalArgumentException.class, () -> GlobTrie.compile(List.of("a//b")));
+        assertThrowsExactly(IllegalArgumentException.class, () -> GlobTrie.compile(List.of("*.{java,kt")));
+        assertThrowsExactly(IllegalArgumentException.class, () -> GlobTrie.compile(List.of("[a-z")));
+    }
+}
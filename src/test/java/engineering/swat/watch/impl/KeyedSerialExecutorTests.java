@@ -0,0 +1,116 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import engineering.swat.watch.impl.util.KeyedSerialExecutor;
+
+class KeyedSerialExecutorTests {
+
+    @Test
+    void tasksForTheSameKeyRunInOrder() {
+        var pool = Executors.newFixedThreadPool(4);
+        try {
+            var exec = new KeyedSerialExecutor(pool, 16);
+            var keys = 8;
+            var tasksPerKey = 10_000;
+            var seen = new ArrayList<List<Integer>>();
+            for (int k = 0; k < keys; k++) {
+                seen.add(new ArrayList<>()); // Not thread-safe on purpose
+            }
+            var done = new AtomicInteger();
+            for (int i = 0; i < tasksPerKey; i++) {
+                for (int k = 0; k < keys; k++) {
+                    var list = seen.get(k);
+                    var value = i;
+                    exec.lane("key" + k).execute(() -> {
+                        list.add(value);
+                        done.incrementAndGet();
+                    });
+                }
+            }
+            await("All tasks should run").until(() -> done.get() == keys * tasksPerKey);
+            for (var list : seen) {
+                assertEquals(tasksPerKey, list.size());
+                for (int i = 0; i < tasksPerKey; i++) {
+                    assertEquals(i, list.get(i));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void distinctKeysRunInParallel() throws InterruptedException {
+        var pool = Executors.newFixedThreadPool(2);
+        try {
+            var exec = new KeyedSerialExecutor(pool, 2);
+            // Find two keys on distinct lanes
+            var key1 = "a";
+            var key2 = "b";
+            for (int i = 0; exec.lane(key1) == exec.lane(key2); i++) {
+                key2 = "b" + i;
+            }
+
+            // The task for `key1` blocks until the task for `key2` has run
+            var latch = new CountDownLatch(1);
+            var blocked = new CountDownLatch(1);
+            exec.lane(key1).execute(() -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                latch.countDown();
+            });
+            exec.lane(key2).execute(blocked::countDown);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void lanesOfLanesAreKeyed() {
+        var exec = new KeyedSerialExecutor(Runnable::run, 4);
+        assertEquals(exec.lane("foo"), KeyedSerialExecutor.laneFor(exec, "foo"));
+        assertEquals(exec.lane("foo"), KeyedSerialExecutor.laneFor(exec.lane("bar"), "foo"));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.coalescing;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchEvent.Kind;
+import engineering.swat.watch.WatchScope;
+import engineering.swat.watch.impl.EventHandlingWatch;
+
+class CoalescingHandlerTests {
+    private static final Path ROOT = Path.of("foo").toAbsolutePath();
+
+    private final EventHandlingWatch watch = new EventHandlingWatch() {
+        @Override
+        public void handleEvent(WatchEvent event) {
+            // Nothing to handle
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Nothing to close
+        }
+
+        @Override
+        public WatchScope getScope() {
+            return WatchScope.PATH_AND_CHILDREN;
+        }
+
+        @Override
+        public Path getPath() {
+            return ROOT;
+        }
+    };
+
+    private static WatchEvent event(Kind kind, String fileName) {
+        return new WatchEvent(kind, ROOT, Path.of(fileName));
+    }
+
+    @Test
+    void mergeTest() {
+        assertEquals(Kind.CREATED, CoalescingHandler.merge(Kind.CREATED, Kind.MODIFIED));
+        assertNull(CoalescingHandler.merge(Kind.CREATED, Kind.DELETED));
+        assertEquals(Kind.MODIFIED, CoalescingHandler.merge(Kind.MODIFIED, Kind.MODIFIED));
+        assertEquals(Kind.DELETED, CoalescingHandler.merge(Kind.MODIFIED, Kind.DELETED));
+        assertEquals(Kind.MODIFIED, CoalescingHandler.merge(Kind.DELETED, Kind.CREATED));
+    }
+
+    @Test
+    void coalescePerPath() {
+        var received = Collections.synchronizedList(new ArrayList<WatchEvent>());
+        var handler = new CoalescingHandler((w, es) -> received.addAll(es),
+            Duration.ofMillis(50), CoalescingHandler.DEFAULT_MAX_PENDING, ForkJoinPool.commonPool());
+
+        handler.accept(watch, List.of(event(Kind.CREATED, "a"), event(Kind.MODIFIED, "a")));
+        handler.accept(watch, List.of(event(Kind.MODIFIED, "a"), event(Kind.CREATED, "b")));
+        handler.accept(watch, List.of(event(Kind.DELETED, "b"), event(Kind.MODIFIED, "c")));
+        handler.accept(watch, List.of(event(Kind.MODIFIED, "c"), event(Kind.DELETED, "c")));
+
+        await("Pending events should be flushed").until(() -> received.size() == 2);
+        var kinds = new ArrayList<Kind>();
+        var fileNames = new ArrayList<Path>();
+        for (var e : received) {
+            kinds.add(e.getKind());
+            fileNames.add(e.getRelativePath());
+        }
+        assertEquals(List.of(Path.of("a"), Path.of("c")), fileNames);
+        assertEquals(List.of(Kind.CREATED, Kind.DELETED), kinds);
+    }
+
+    @Test
+    void overflowFlushesPendingEvents() {
+        var received = Collections.synchronizedList(new ArrayList<WatchEvent>());
+        var handler = new CoalescingHandler((w, es) -> received.addAll(es),
+            Duration.ofHours(1), CoalescingHandler.DEFAULT_MAX_PENDING, ForkJoinPool.commonPool());
+
+        handler.accept(watch, List.of(event(Kind.CREATED, "a")));
+        assertEquals(0, received.size());
+        handler.accept(watch, List.of(new WatchEvent(Kind.OVERFLOW, ROOT)));
+        await("Pending events should be flushed").until(() -> received.size() == 2);
+        assertEquals(Kind.CREATED, received.get(0).getKind());
+        assertEquals(Kind.OVERFLOW, received.get(1).getKind());
+    }
+
+    @Test
+    void memoryIsBounded() {
+        var received = Collections.synchronizedList(new ArrayList<WatchEvent>());
+        var handler = new CoalescingHandler((w, es) -> received.addAll(es),
+            Duration.ofHours(1), 2, ForkJoinPool.commonPool());
+
+        handler.accept(watch, List.of(event(Kind.CREATED, "a"), event(Kind.CREATED, "b")));
+        handler.accept(watch, List.of(event(Kind.CREATED, "c"), event(Kind.MODIFIED, "a")));
+        await("Events beyond the bound should be passed downstream").until(() -> received.size() == 1);
+        assertTrue(WatchEvent.areEquivalent(event(Kind.CREATED, "c"), received.get(0)));
+    }
+
+    private static class Item extends TimerWheel.Entry<Item> {
+        private final int id;
+
+        Item(int id) {
+            this.id = id;
+        }
+    }
+
+    @Test
+    void cancelledItemsLeaveTheWheel() {
+        var wheel = new TimerWheel<Item>(2);
+        var items = List.of(new Item(0), new Item(1), new Item(2));
+        for (var item : items) {
+            wheel.schedule(item);
+        }
+        wheel.cancel(items.get(1));
+        wheel.cancel(items.get(1)); // No-op
+        assertEquals(2, wheel.size());
+
+        assertTrue(wheel.tick().isEmpty());
+        var expired = wheel.tick();
+        assertEquals(2, expired.size());
+        assertEquals(0, expired.get(0).id);
+        assertEquals(2, expired.get(1).id);
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class DirectoryTreeTests {
+
+    @Test
+    void childrenAreFoundByName() {
+        var tree = new DirectoryTree();
+        var a = tree.add(DirectoryTree.ROOT, Path.of("a"));
+        var b = tree.add(a, Path.of("b"));
+
+        assertEquals(a, tree.find(DirectoryTree.ROOT, Path.of("a")));
+        assertEquals(b, tree.find(a, Path.of("b")));
+        assertEquals(DirectoryTree.NONE, tree.find(DirectoryTree.ROOT, Path.of("b")));
+        assertEquals(a, tree.add(DirectoryTree.ROOT, Path.of("a")), "Adding twice should return the existing node");
+        assertEquals(Path.of("a", "b"), tree.relativePath(b));
+        assertEquals(3, tree.size());
+    }
+
+    @Test
+    void removalIncludesDescendantsAndTheirRegistrations() {
+        var tree = new DirectoryTree();
+        var a = tree.add(DirectoryTree.ROOT, Path.of("a"));
+        var b = tree.add(a, Path.of("b"));
+        var c = tree.add(DirectoryTree.ROOT, Path.of("c"));
+        Closeable registration = () -> {};
+        tree.setRegistration(b, registration);
+        var generation = tree.generation(b);
+
+        var removed = new ArrayList<Closeable>();
+        tree.remove(a, removed);
+
+        assertEquals(List.of(registration), removed);
+        assertEquals(DirectoryTree.NONE, tree.find(DirectoryTree.ROOT, Path.of("a")));
+        assertFalse(tree.isLive(b, generation));
+        assertEquals(List.of(c), tree.children(DirectoryTree.ROOT));
+        assertEquals(2, tree.size());
+
+        // Removed nodes are reused, but with a new generation
+        var d = tree.add(c, Path.of("d"));
+        var e = tree.add(d, Path.of("e"));
+        assertTrue(d == b || e == b);
+        assertNotEquals(generation, tree.generation(b));
+    }
+
+    @Test
+    void manyNodesCanBeAddedAndRemoved() {
+        var tree = new DirectoryTree();
+        var removed = new ArrayList<Closeable>();
+        for (int round = 0; round < 3; round++) {
+            var nodes = new ArrayList<Integer>();
+            for (int i = 0; i < 1000; i++) {
+                nodes.add(tree.add(DirectoryTree.ROOT, Path.of("d" + i)));
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(nodes.get(i), tree.find(DirectoryTree.ROOT, Path.of("d" + i)));
+            }
+            for (var n : nodes) {
+                tree.remove(n, removed);
+            }
+            assertEquals(1, tree.size());
+        }
+    }
+}
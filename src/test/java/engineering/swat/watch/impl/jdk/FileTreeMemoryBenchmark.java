@@ -0,0 +1,105 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+import engineering.swat.watch.WatchFilter;
+
+/**
+ * Benchmark of the number of bytes of heap that a recursive watch retains per
+ * watched directory (including the bookkeeping of the poller). This isn't a
+ * test (heap usage after garbage collection depends on the JVM), so it isn't
+ * run by the build. Run it after {@code mvn test-compile} with:
+ *
+ * <pre>
+ * mvn -q dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *     engineering.swat.watch.impl.jdk.FileTreeMemoryBenchmark
+ * </pre>
+ *
+ * The baseline is the tree of per-directory watches that preceded
+ * {@link DirectoryTree} (commit {@code b654249^}), whose constructors of
+ * {@link JDKPoller} and {@link JDKFileTreeWatch} are the same. To measure it,
+ * check out that commit, copy this class into its test sources, and run it
+ * in the same way. On JDK 17 (Linux), the baseline retains about 1140 bytes
+ * per watched directory, while the compact tree retains about 640.
+ */
+public class FileTreeMemoryBenchmark {
+    private static final int FAN_OUT = 12;
+
+    /**
+     * @return The number of created directories (in three levels below `root`)
+     */
+    private static int createTree(Path root) throws IOException {
+        int n = 0;
+        for (int i = 0; i < FAN_OUT; i++) {
+            for (int j = 0; j < FAN_OUT; j++) {
+                for (int k = 0; k < FAN_OUT; k++) {
+                    Files.createDirectories(root.resolve("d" + i).resolve("d" + j).resolve("d" + k));
+                    n++;
+                }
+                n++;
+            }
+            n++;
+        }
+        return n;
+    }
+
+    private static long usedHeap() {
+        var memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    public static void main(String[] args) throws IOException {
+        var root = Files.createTempDirectory("java-watch-benchmark");
+        try {
+            var directories = createTree(root) + 1;
+            try (var poller = new JDKPoller(1, 64, 4, Thread::new, Integer.MAX_VALUE, false)) {
+                var before = usedHeap();
+                var watch = new JDKFileTreeWatch(root, poller, Runnable::run, (w, es) -> {}, e -> true, WatchFilter.all());
+                watch.open();
+                var after = usedHeap();
+                watch.close();
+                System.out.printf("Retained bytes per watched directory: %.0f (%d directories)%n",
+                    (double) (after - before) / directories, directories);
+            }
+        } finally {
+            try (var files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+import engineering.swat.watch.TestDirectory;
+import engineering.swat.watch.WatchFilter;
+import engineering.swat.watch.impl.util.SubscriptionKey;
+
+class FileTreeMemoryTests {
+    private static final int FAN_OUT = 12;
+
+    // The parallel arrays at most double in length when they're full, and the
+    // table at most doubles when it's a quarter full, so a tree needs at most
+    // 2 slots per node in each parallel array, and 8 slots per node in the
+    // table (see `DirectoryTree.slots`)
+    private static final int MAX_SLOTS_PER_DIRECTORY = 7 * 2 + 8;
+
+    /**
+     * Adds `levels` levels of directories below `node`
+     */
+    private static void addSubtree(DirectoryTree tree, int node, int levels) {
+        if (levels == 0) {
+            return;
+        }
+        for (int i = 0; i < FAN_OUT; i++) {
+            addSubtree(tree, tree.add(node, Path.of("d" + i)), levels - 1);
+        }
+    }
+
+    private static void assertBoundedSlots(DirectoryTree tree) {
+        assertTrue(tree.slots() <= MAX_SLOTS_PER_DIRECTORY * tree.size(),
+            tree.slots() + " slots for " + tree.size() + " directories");
+    }
+
+    @Test
+    void slotsPerDirectoryAreBounded() {
+        var tree = new DirectoryTree();
+        addSubtree(tree, DirectoryTree.ROOT, 3);
+        assertEquals(1 + FAN_OUT + FAN_OUT * FAN_OUT + FAN_OUT * FAN_OUT * FAN_OUT, tree.size());
+        assertBoundedSlots(tree);
+    }
+
+    private static void replaceSubtrees(DirectoryTree tree) {
+        var removed = new ArrayList<Closeable>();
+        for (int i = 0; i < FAN_OUT; i++) {
+            var child = tree.find(DirectoryTree.ROOT, Path.of("d" + i));
+            tree.remove(child, removed);
+            addSubtree(tree, tree.add(DirectoryTree.ROOT, Path.of("d" + i)), 2);
+        }
+    }
+
+    @Test
+    void slotsDoNotGrowWhenSubtreesAreReplaced() {
+        var tree = new DirectoryTree();
+        addSubtree(tree, DirectoryTree.ROOT, 3);
+
+        // The first replacement may grow the table, to make room for
+        // tombstones, but then removed nodes and tombstones are reused
+        replaceSubtrees(tree);
+        var slots = tree.slots();
+        for (int round = 0; round < 5; round++) {
+            replaceSubtrees(tree);
+        }
+        assertEquals(slots, tree.slots());
+        assertBoundedSlots(tree);
+    }
+
+    private static class RecordingTreeWatch extends JDKFileTreeWatch {
+        private final List<SubscriptionKey> keys = Collections.synchronizedList(new ArrayList<>());
+        private final List<Consumer<SharedEventBatch>> handlers = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingTreeWatch(Path root, JDKPoller poller) {
+            super(root, poller, Runnable::run, (w, es) -> {}, e -> true, WatchFilter.all());
+        }
+
+        @Override
+        Closeable subscribe(SubscriptionKey key, Consumer<SharedEventBatch> handler) throws IOException {
+            keys.add(key);
+            handlers.add(handler);
+            return super.subscribe(key, handler);
+        }
+
+        @Override
+        List<Closeable> subscribeAll(List<SubscriptionKey> keys, List<Consumer<SharedEventBatch>> handlers) throws IOException {
+            this.keys.addAll(keys);
+            this.handlers.addAll(handlers);
+            return super.subscribeAll(keys, handlers);
+        }
+    }
+
+    // Besides the slots of the tree, each directory retains its name, its
+    // registration, and the handler of that registration in the poller. The
+    // handlers should identify their directory by node (instead of retaining
+    // its path or view), so the poller retains no other per-directory objects.
+    @Test
+    void directoriesRetainOneRegistrationWithoutPaths() throws IOException {
+        try (var testDir = new TestDirectory();
+            var poller = new JDKPoller(1, 64, 1, Thread::new, Integer.MAX_VALUE, false)) {
+
+            var root = testDir.getTestDirectory();
+            for (int i = 0; i < FAN_OUT; i++) {
+                for (int j = 0; j < FAN_OUT; j++) {
+                    Files.createDirectories(root.resolve("t" + i).resolve("t" + j));
+                }
+            }
+            long directories;
+            try (var files = Files.walk(root)) {
+                directories = files.filter(Files::isDirectory).count();
+            }
+
+            var watch = new RecordingTreeWatch(root, poller);
+            watch.open();
+            try {
+                assertEquals(directories, watch.getRegisteredDirectoryCount());
+                assertEquals(directories, watch.keys.size(), "Each directory should be subscribed to once");
+                assertEquals(directories, new HashSet<>(watch.keys).size());
+                for (var handler : watch.handlers) {
+                    for (var field : handler.getClass().getDeclaredFields()) {
+                        var type = field.getType();
+                        assertTrue(type.isPrimitive() || type == JDKFileTreeWatch.class,
+                            "Handler retains a " + type.getName());
+                    }
+                }
+            } finally {
+                watch.close();
+            }
+            assertEquals(0, watch.getRegisteredDirectoryCount());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.ArrayList;
+import java.util.List;
+
+import engineering.swat.watch.WatchEvent;
+
+/**
+ * Benchmark of the number of bytes that are allocated per event to dispatch
+ * batches of JDK events to a handler, with regular and with flyweight events.
+ * This isn't a test (allocation counts depend on the JIT and the JVM), so it
+ * isn't run by the build. Run it after {@code mvn test-compile} with:
+ *
+ * <pre>
+ * mvn -q dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *     engineering.swat.watch.impl.jdk.FlyweightEventsBenchmark
+ * </pre>
+ */
+public class FlyweightEventsBenchmark {
+    private static final Path ROOT = Path.of("foo").toAbsolutePath();
+    private static final int BATCH_SIZE = 128;
+    private static final int WARMUP_ROUNDS = 20_000;
+    private static final int ROUNDS = 20_000;
+
+    private static long[] sink = new long[1];
+
+    private static List<java.nio.file.WatchEvent<?>> jdkEvents(int n) {
+        var events = new ArrayList<java.nio.file.WatchEvent<?>>(n);
+        for (int i = 0; i < n; i++) {
+            var context = Path.of("file" + i + ".txt");
+            events.add(new java.nio.file.WatchEvent<Path>() {
+                @Override
+                public Kind<Path> kind() {
+                    return StandardWatchEventKinds.ENTRY_MODIFY;
+                }
+
+                @Override
+                public int count() {
+                    return 1;
+                }
+
+                @Override
+                public Path context() {
+                    return context;
+                }
+            });
+        }
+        return events;
+    }
+
+    /**
+     * Measures the number of bytes that are allocated (by the current thread)
+     * per event to dispatch batches of JDK events to a handler
+     */
+    private static double bytesPerEvent(boolean flyweightEvents) throws IOException {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var events = jdkEvents(BATCH_SIZE);
+        try (var poller = new JDKPoller(1, BATCH_SIZE, 1, Thread::new, Integer.MAX_VALUE, flyweightEvents)) {
+            var watch = new JDKDirectoryWatch(ROOT, poller, Runnable::run, (w, es) -> {
+                for (int i = 0; i < es.size(); i++) {
+                    var e = es.get(i);
+                    sink[0] += e.getKind().ordinal() + e.getRelativePath().getNameCount();
+                }
+            }, e -> true);
+
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                watch.handleBundledEvents(new SharedEventBatch(ROOT, events, WatchEvent.Source.NATIVE, 0, 0));
+            }
+            var before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < ROUNDS; i++) {
+                watch.handleBundledEvents(new SharedEventBatch(ROOT, events, WatchEvent.Source.NATIVE, 0, 0));
+            }
+            var after = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            return (double) (after - before) / ((long) ROUNDS * BATCH_SIZE);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        var regular = bytesPerEvent(false);
+        var flyweight = bytesPerEvent(true);
+        System.out.printf("Allocated bytes per event: %.2f (regular), %.2f (flyweight)%n", regular, flyweight);
+    }
+}
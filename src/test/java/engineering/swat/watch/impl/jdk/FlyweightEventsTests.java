@@ -0,0 +1,127 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.Test;
+
+import engineering.swat.watch.WatchEvent;
+
+class FlyweightEventsTests {
+    private static final Path ROOT = Path.of("foo").toAbsolutePath();
+    private static final int BATCH_SIZE = 128;
+
+    private static List<java.nio.file.WatchEvent<?>> jdkEvents(int n) {
+        var events = new ArrayList<java.nio.file.WatchEvent<?>>(n);
+        for (int i = 0; i < n; i++) {
+            var context = Path.of("file" + i + ".txt");
+            events.add(new java.nio.file.WatchEvent<Path>() {
+                @Override
+                public Kind<Path> kind() {
+                    return StandardWatchEventKinds.ENTRY_MODIFY;
+                }
+
+                @Override
+                public int count() {
+                    return 1;
+                }
+
+                @Override
+                public Path context() {
+                    return context;
+                }
+            });
+        }
+        return events;
+    }
+
+    @Test
+    void flyweightEventsCanBeCopied() throws IOException {
+        var events = jdkEvents(2);
+        var seen = new AtomicReference<List<WatchEvent>>();
+        try (var poller = new JDKPoller(1, BATCH_SIZE, 1, Thread::new, Integer.MAX_VALUE, true)) {
+            var watch = new JDKDirectoryWatch(ROOT, poller, Runnable::run, (w, es) -> {
+                var copies = new ArrayList<WatchEvent>();
+                for (var e : es) {
+                    copies.add(e.copy());
+                }
+                seen.set(copies);
+            }, e -> true);
+            watch.handleBundledEvents(new SharedEventBatch(ROOT, events, WatchEvent.Source.NATIVE, 0, 0));
+        }
+
+        var copies = seen.get();
+        assertEquals(2, copies.size());
+        for (int i = 0; i < copies.size(); i++) {
+            var expected = new WatchEvent(WatchEvent.Kind.MODIFIED, ROOT, Path.of("file" + i + ".txt"));
+            assertTrue(WatchEvent.areEquivalent(expected, copies.get(i)));
+            assertEquals(expected.calculateFullPath(), copies.get(i).calculateFullPath());
+            assertEquals(expected.getFileName(), copies.get(i).getFileName());
+            assertSame(copies.get(i), copies.get(i).copy()); // Copies are regular events
+        }
+    }
+
+    @Test
+    void flyweightOverflowsAreNamedAfterTheirDirectory() {
+        var overflow = new java.nio.file.WatchEvent<Object>() {
+            @Override
+            public Kind<Object> kind() {
+                return StandardWatchEventKinds.OVERFLOW;
+            }
+
+            @Override
+            public int count() {
+                return 1;
+            }
+
+            @Override
+            public @Nullable Object context() {
+                return null;
+            }
+        };
+        var batch = new SharedEventBatch(ROOT, List.of(overflow), WatchEvent.Source.NATIVE, 0, 0);
+        var event = new FlyweightWatchEvent();
+        event.set(batch, 0, ROOT, null);
+        assertEquals(WatchEvent.Kind.OVERFLOW, event.getKind());
+        assertEquals(ROOT.getFileName(), event.getFileName());
+        assertEquals(event.copy().getFileName(), event.getFileName());
+
+        event.set(batch, 0, ROOT, Path.of("bar"));
+        assertEquals(event.copy().getFileName(), event.getFileName());
+    }
+}
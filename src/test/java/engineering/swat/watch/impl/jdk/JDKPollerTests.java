@@ -0,0 +1,346 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.Watchable;
+import java.nio.file.WatchEvent.Modifier;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.awaitility.Awaitility;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import engineering.swat.watch.TestDirectory;
+import engineering.swat.watch.TestHelper;
+import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.impl.util.SubscriptionKey;
+
+class JDKPollerTests {
+
+    private TestDirectory testDir;
+
+    @BeforeEach
+    void setup() throws IOException {
+        testDir = new TestDirectory();
+    }
+
+    @AfterEach
+    void cleanup() {
+        if (testDir != null) {
+            testDir.close();
+        }
+    }
+
+    @BeforeAll
+    static void setupEverything() {
+        Awaitility.setDefaultTimeout(TestHelper.NORMAL_WAIT);
+    }
+
+    /**
+     * Watch service whose keys are signalled by the test (instead of by the
+     * OS), so the order in which the poller gives them turns is deterministic
+     */
+    private static class ScriptedWatchService implements WatchService {
+        private final Deque<WatchKey> signalled = new ArrayDeque<>(); // Guarded by `this`
+        private boolean closed = false; // Guarded by `this`
+
+        synchronized void signal(WatchKey... keys) {
+            signalled.addAll(List.of(keys));
+            notifyAll();
+        }
+
+        private void checkOpen() {
+            if (closed) {
+                throw new ClosedWatchServiceException();
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized @Nullable WatchKey poll() {
+            checkOpen();
+            return signalled.poll();
+        }
+
+        @Override
+        public synchronized @Nullable WatchKey poll(long timeout, TimeUnit unit) throws InterruptedException {
+            checkOpen();
+            if (signalled.isEmpty()) {
+                unit.timedWait(this, timeout);
+                checkOpen();
+            }
+            return signalled.poll();
+        }
+
+        @Override
+        public synchronized WatchKey take() throws InterruptedException {
+            checkOpen();
+            while (signalled.isEmpty()) {
+                wait();
+                checkOpen();
+            }
+            return signalled.remove();
+        }
+    }
+
+    private static class ScriptedKey implements WatchKey {
+        private final Watchable watchable;
+        private volatile List<java.nio.file.WatchEvent<?>> events = List.of();
+
+        ScriptedKey(Watchable watchable) {
+            this.watchable = watchable;
+        }
+
+        void fill(int n) {
+            var result = new ArrayList<java.nio.file.WatchEvent<?>>(n);
+            for (int i = 0; i < n; i++) {
+                var context = Path.of("file" + i + ".txt");
+                result.add(new java.nio.file.WatchEvent<Path>() {
+                    @Override
+                    public Kind<Path> kind() {
+                        return StandardWatchEventKinds.ENTRY_MODIFY;
+                    }
+
+                    @Override
+                    public int count() {
+                        return 1;
+                    }
+
+                    @Override
+                    public Path context() {
+                        return context;
+                    }
+                });
+            }
+            events = result;
+        }
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+
+        @Override
+        public List<java.nio.file.WatchEvent<?>> pollEvents() {
+            var result = events;
+            events = List.of();
+            return result;
+        }
+
+        @Override
+        public boolean reset() {
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            // Nothing to release
+        }
+
+        @Override
+        public Watchable watchable() {
+            return watchable;
+        }
+    }
+
+    private static class ScriptedWatchable implements Watchable {
+        private volatile @Nullable ScriptedKey key;
+
+        @Override
+        public WatchKey register(WatchService watcher, java.nio.file.WatchEvent.Kind<?>[] events, Modifier... modifiers) {
+            var result = new ScriptedKey(this);
+            key = result;
+            return result;
+        }
+
+        @Override
+        public WatchKey register(WatchService watcher, java.nio.file.WatchEvent.Kind<?>... events) {
+            return register(watcher, events, new Modifier[0]);
+        }
+    }
+
+    @Test
+    void busyDirectoryDoesNotStarveOthers() throws IOException {
+        var budget = 16;
+        var busyTurns = 50;
+        var perEvent = Duration.ofMillis(1); // The cost of handling an event
+
+        var service = new ScriptedWatchService();
+        var watchables = new ConcurrentHashMap<Path, ScriptedWatchable>();
+        var platform = new JDKPoller.Platform() {
+            @Override
+            public WatchService newWatchService() {
+                return service;
+            }
+
+            @Override
+            public Watchable newWatchable(Path path) {
+                return watchables.computeIfAbsent(path, p -> new ScriptedWatchable());
+            }
+        };
+
+        var busy = testDir.getTestDirectory().resolve("busy");
+        var quiet = testDir.getTestDirectory().resolve("quiet");
+        var turns = new ConcurrentLinkedQueue<Path>();
+        var busyEvents = new AtomicInteger();
+        var maxChunk = new AtomicInteger();
+
+        try (var poller = new JDKPoller(1, budget, 1, Thread::new, Integer.MAX_VALUE, false, platform);
+             var b = poller.subscribe(new SubscriptionKey(busy, false), events -> {
+                turns.add(busy);
+                busyEvents.addAndGet(events.size());
+                maxChunk.accumulateAndGet(events.size(), Math::max);
+                try {
+                    Thread.sleep(perEvent.toMillis() * events.size());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+             });
+             var q = poller.subscribe(new SubscriptionKey(quiet, false), events -> turns.add(quiet))) {
+
+            var busyKey = watchables.get(busy).key;
+            var quietKey = watchables.get(quiet).key;
+            assertNotNull(busyKey);
+            assertNotNull(quietKey);
+            busyKey.fill(busyTurns * budget);
+            quietKey.fill(1);
+            service.signal(busyKey, quietKey);
+
+            await("All events are dispatched").until(() -> busyEvents.get() == busyTurns * budget && turns.contains(quiet));
+
+            // Both keys are ready at once, so the quiet key gets its turn in
+            // the first round (i.e., after at most one turn of the busy key)
+            assertEquals(1, new ArrayList<>(turns).indexOf(quiet), "The quiet key should get a turn in the first round");
+            assertEquals(budget, maxChunk.get(), "A turn should dispatch at most the budget");
+
+            // So, no key waits longer than one turn of the other key
+            var bound = perEvent.multipliedBy(budget).plus(TestHelper.TINY_WAIT);
+            var maxWait = poller.getKeyWaitStatistics().getMaxNanos();
+            assertTrue(maxWait < bound.toNanos(), "Max wait of " + maxWait + " ns exceeds " + bound);
+        }
+    }
+
+    @Test
+    void closedPollerRejectsSubscriptions() throws IOException {
+        var poller = new JDKPoller(2, 128, 1, Thread::new, Integer.MAX_VALUE, false);
+        poller.close();
+        assertThrows(IOException.class, () ->
+            poller.subscribe(new SubscriptionKey(testDir.getTestDirectory(), false), events -> {}));
+    }
+
+    @Test
+    void widenedRegistrationsReportNewKinds() throws IOException {
+        assertWideningReportsNewKinds(JDKPoller.Platform.get());
+    }
+
+    @Test
+    @EnabledOnOs(OS.MAC)
+    void widenedMacRegistrationsReportNewKinds() throws IOException {
+        // The mac backend creates a new watchable for each registration, so
+        // widening must re-register the original one
+        assertWideningReportsNewKinds(JDKPoller.Platform.MAC);
+    }
+
+    @Test
+    void widenedRegistrationsOfAnotherSubtreeReportNewKinds() throws IOException {
+        // Registrations are assigned to shards by subtree, so the second
+        // subscriber (of another subtree) maps to another shard than the
+        // registration that needs to be widened
+        var shards = 8;
+        var dir = testDir.getTestDirectory();
+        var subtree = dir.getParent();
+        var otherSubtree = dir;
+        for (int i = 0; Math.floorMod(otherSubtree.hashCode(), shards) == Math.floorMod(subtree.hashCode(), shards); i++) {
+            otherSubtree = dir.resolve("other" + i);
+        }
+        var created = new AtomicBoolean(false);
+        try (var poller = new JDKPoller(shards, 128, 1, Thread::new, Integer.MAX_VALUE, false);
+             var narrow = poller.subscribe(new SubscriptionKey(dir, false, subtree, EnumSet.of(WatchEvent.Kind.MODIFIED)), events -> {});
+             var wide = poller.subscribe(new SubscriptionKey(dir, false, otherSubtree, EnumSet.allOf(WatchEvent.Kind.class)), events -> {
+                for (int i = 0; i < events.size(); i++) {
+                    if (events.kind(i) == WatchEvent.Kind.CREATED) {
+                        created.set(true);
+                    }
+                }
+             })) {
+
+            Files.writeString(dir.resolve("new.txt"), "Hello world");
+            await("Creation is reported after widening").untilTrue(created);
+        }
+    }
+
+    private void assertWideningReportsNewKinds(JDKPoller.Platform platform) throws IOException {
+        var dir = testDir.getTestDirectory();
+        var created = new AtomicBoolean(false);
+        try (var poller = new JDKPoller(1, 128, 1, Thread::new, Integer.MAX_VALUE, false, platform);
+             var narrow = poller.subscribe(new SubscriptionKey(dir, false, dir, EnumSet.of(WatchEvent.Kind.MODIFIED)), events -> {});
+             var wide = poller.subscribe(new SubscriptionKey(dir, false, dir, EnumSet.allOf(WatchEvent.Kind.class)), events -> {
+                for (int i = 0; i < events.size(); i++) {
+                    if (events.kind(i) == WatchEvent.Kind.CREATED) {
+                        created.set(true);
+                    }
+                }
+             })) {
+
+            Files.writeString(dir.resolve("new.txt"), "Hello world");
+            await("Creation is reported after widening").untilTrue(created);
+        }
+    }
+}
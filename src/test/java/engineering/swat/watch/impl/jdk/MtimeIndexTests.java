@@ -0,0 +1,93 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import engineering.swat.watch.TestDirectory;
+import engineering.swat.watch.WatchEvent;
+
+class MtimeIndexTests {
+    private TestDirectory testDir;
+
+    @BeforeEach
+    void setup() throws IOException {
+        testDir = new TestDirectory();
+    }
+
+    @AfterEach
+    void cleanup() {
+        if (testDir != null) {
+            testDir.close();
+        }
+    }
+
+    private static List<String> scan(MtimeIndex index, Path directory) throws IOException {
+        var changes = new ArrayList<String>();
+        index.scan(directory, (kind, fileName) -> changes.add(kind + " " + fileName));
+        return changes;
+    }
+
+    @Test
+    void unchangedEntriesAreNotReported() throws IOException {
+        var directory = testDir.getTestDirectory();
+        var index = new MtimeIndex();
+        index.scan(directory, null);
+        assertEquals(List.of(), scan(index, directory));
+    }
+
+    @Test
+    void writesWithinTheSameTimestampAreReported() throws IOException {
+        var directory = testDir.getTestDirectory();
+        var file = directory.resolve("a.txt");
+        var time = FileTime.fromMillis(1_000_000);
+        Files.setLastModifiedTime(file, time);
+        var index = new MtimeIndex();
+        index.scan(directory, null);
+
+        // Same (coarse) time, different size
+        Files.writeString(file, "Hello world");
+        Files.setLastModifiedTime(file, time);
+        assertEquals(List.of(WatchEvent.Kind.MODIFIED + " a.txt"), scan(index, directory));
+
+        // Same size, different time (within the same millisecond)
+        Files.writeString(file, "Hello World");
+        Files.setLastModifiedTime(file, FileTime.from(time.toInstant().plusNanos(1_000)));
+        assertEquals(List.of(WatchEvent.Kind.MODIFIED + " a.txt"), scan(index, directory));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import engineering.swat.watch.TestDirectory;
+import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchFilter;
+import engineering.swat.watch.impl.util.SubscriptionKey;
+
+class ScannedDirectoriesTests {
+    private TestDirectory testDir;
+
+    @BeforeEach
+    void setup() throws IOException {
+        testDir = new TestDirectory();
+    }
+
+    @AfterEach
+    void cleanup() {
+        if (testDir != null) {
+            testDir.close();
+        }
+    }
+
+    /**
+     * Tree watch whose registrations of the directories below `refused` fail
+     * (by default, as if the OS has run out of capacity), as long as
+     * `refusing` is set
+     */
+    private static class RefusingTreeWatch extends JDKFileTreeWatch {
+        private static final String CAPACITY_ERROR = "User limit of inotify watches reached";
+
+        private final Path refused;
+        private final String error;
+        private volatile boolean refusing = true;
+
+        RefusingTreeWatch(Path root, Path refused, JDKPoller poller, Queue<WatchEvent> events) {
+            this(root, refused, CAPACITY_ERROR, poller, events);
+        }
+
+        RefusingTreeWatch(Path root, Path refused, String error, JDKPoller poller, Queue<WatchEvent> events) {
+            super(root, poller, Runnable::run, (w, es) -> events.addAll(es), e -> true,
+                WatchFilter.all(), ForkJoinPool.commonPool(), Duration.ofMillis(50));
+            this.refused = refused;
+            this.error = error;
+        }
+
+        private void check(SubscriptionKey key) throws IOException {
+            if (refusing && key.getPath().startsWith(refused)) {
+                throw new IOException(error);
+            }
+        }
+
+        @Override
+        Closeable subscribe(SubscriptionKey key, Consumer<SharedEventBatch> handler) throws IOException {
+            check(key);
+            return super.subscribe(key, handler);
+        }
+
+        @Override
+        List<Closeable> subscribeAll(List<SubscriptionKey> keys, List<Consumer<SharedEventBatch>> handlers) throws IOException {
+            for (var key : keys) {
+                check(key);
+            }
+            return super.subscribeAll(keys, handlers);
+        }
+    }
+
+    private static boolean seen(Queue<WatchEvent> events, WatchEvent.Kind kind, Path relativePath) {
+        return events.stream().anyMatch(e -> e.getKind() == kind && e.getRelativePath().equals(relativePath));
+    }
+
+    @Test
+    void refusedDirectoriesAreScannedAndRegisteredAgainLater() throws IOException {
+        var root = testDir.getTestDirectory();
+        Files.createDirectories(root.resolve(Path.of("a", "b")));
+        Files.createDirectories(root.resolve("c"));
+        var events = new ConcurrentLinkedQueue<WatchEvent>();
+        int directories;
+        try (var stream = Files.walk(root)) {
+            directories = (int) stream.filter(Files::isDirectory).count();
+        }
+
+        try (var poller = new JDKPoller(1, 64, 1, Thread::new, Integer.MAX_VALUE, false);
+             var watch = new RefusingTreeWatch(root, root.resolve("a"), poller, events)) {
+            watch.open();
+            assertTrue(watch.getScannedDirectoryCount() >= 2, "Directories `a` and `a/b` should be scanned");
+            assertEquals(directories, watch.getScannedDirectoryCount() + watch.getRegisteredDirectoryCount());
+
+            // Changes in scanned directories are detected by scans
+            var created = Path.of("a", "b", "x.txt");
+            Files.writeString(root.resolve(created), "Hello World");
+            await("Creation in scanned directory is seen").until(() -> seen(events, WatchEvent.Kind.CREATED, created));
+            Files.delete(root.resolve(created));
+            await("Deletion in scanned directory is seen").until(() -> seen(events, WatchEvent.Kind.DELETED, created));
+
+            // When capacity frees up, scanned directories are registered again
+            watch.refusing = false;
+            await("All directories are registered again").until(() -> watch.getScannedDirectoryCount() == 0);
+            assertEquals(directories, watch.getRegisteredDirectoryCount());
+
+            var modified = Path.of("a", "b", "y.txt");
+            Files.writeString(root.resolve(modified), "Hello World");
+            await("Creation in registered directory is seen").until(() -> seen(events, WatchEvent.Kind.CREATED, modified));
+        }
+    }
+
+    @Test
+    void otherRefusalsDoNotStopRegistrations() throws IOException {
+        var root = testDir.getTestDirectory();
+        Files.createDirectories(root.resolve("a"));
+        Files.createDirectories(root.resolve("c"));
+        var events = new ConcurrentLinkedQueue<WatchEvent>();
+
+        try (var poller = new JDKPoller(1, 64, 1, Thread::new, Integer.MAX_VALUE, false);
+             var watch = new RefusingTreeWatch(root, root.resolve("a"), "Permission denied", poller, events)) {
+            watch.open();
+            assertEquals(1, watch.getScannedDirectoryCount(), "Only directory `a` should be scanned");
+
+            // The OS still has capacity, so new directories are registered
+            var registered = watch.getRegisteredDirectoryCount();
+            Files.createDirectories(root.resolve(Path.of("c", "d")));
+            await("New directory is registered").until(() -> watch.getRegisteredDirectoryCount() == registered + 1);
+            assertEquals(1, watch.getScannedDirectoryCount());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.jdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchFilter;
+
+class SharedEventBatchTests {
+    private static final Path ROOT = Path.of("foo").toAbsolutePath();
+
+    private static java.nio.file.WatchEvent<Path> jdkEvent(String fileName) {
+        var context = Path.of(fileName);
+        return new java.nio.file.WatchEvent<Path>() {
+            @Override
+            public Kind<Path> kind() {
+                return StandardWatchEventKinds.ENTRY_MODIFY;
+            }
+
+            @Override
+            public int count() {
+                return 1;
+            }
+
+            @Override
+            public Path context() {
+                return context;
+            }
+        };
+    }
+
+    @Test
+    void watchesShareTranslatedEvents() throws IOException {
+        var batch = new SharedEventBatch(ROOT, List.of(jdkEvent("a.txt"), jdkEvent("b.txt")), WatchEvent.Source.NATIVE, 0, 0);
+        var seen1 = new AtomicReference<List<WatchEvent>>();
+        var seen2 = new AtomicReference<List<WatchEvent>>();
+        try (var poller = new JDKPoller(1, 16, 1, Thread::new, Integer.MAX_VALUE, false)) {
+            new JDKDirectoryWatch(ROOT, poller, Runnable::run, (w, es) -> seen1.set(es), e -> true)
+                .handleBundledEvents(batch);
+            new JDKDirectoryWatch(ROOT, poller, Runnable::run, (w, es) -> seen2.set(es), e -> true)
+                .handleBundledEvents(batch);
+        }
+
+        assertEquals(2, seen1.get().size());
+        assertEquals(2, seen2.get().size());
+        for (int i = 0; i < 2; i++) {
+            assertSame(seen1.get().get(i), seen2.get().get(i));
+        }
+    }
+
+    @Test
+    void translatedEventsKeepTheirMetadata() {
+        var batch = new SharedEventBatch(ROOT, List.of(jdkEvent("a.txt"), jdkEvent("b.txt")), WatchEvent.Source.NATIVE, 42, 1234);
+        for (int i = 0; i < batch.size(); i++) {
+            var event = batch.get(i);
+            assertEquals(WatchEvent.Source.NATIVE, event.getSource());
+            assertEquals(42 + i, event.getSequence());
+            assertEquals(1234, event.getTimestamp());
+
+            var flyweight = new FlyweightWatchEvent();
+            flyweight.set(batch, i, ROOT, null);
+            assertEquals(event.getSequence(), flyweight.getSequence());
+            assertEquals(event.getSequence(), flyweight.copy().getSequence());
+        }
+        var synthetic = SharedEventBatch.synthetic(ROOT, List.of(jdkEvent("a.txt")));
+        assertEquals(WatchEvent.Source.SYNTHETIC, synthetic.get(0).getSource());
+    }
+
+    @Test
+    void uninterestedWatchesScheduleNoTasks() throws IOException {
+        var batch = new SharedEventBatch(ROOT, List.of(jdkEvent("a.txt"), jdkEvent("b.txt")), WatchEvent.Source.NATIVE, 0, 0);
+        var tasks = new AtomicInteger();
+        Executor exec = r -> {
+            tasks.incrementAndGet();
+            r.run();
+        };
+        var seen = new AtomicReference<List<WatchEvent>>();
+        try (var poller = new JDKPoller(1, 16, 1, Thread::new, Integer.MAX_VALUE, false)) {
+            new JDKDirectoryWatch(ROOT, poller, exec, (w, es) -> seen.set(es), e -> true,
+                false, WatchFilter.all().withFileNames("c.txt")).handleBundledEvents(batch);
+            assertEquals(0, tasks.get());
+
+            new JDKDirectoryWatch(ROOT, poller, exec, (w, es) -> seen.set(es), e -> true,
+                false, WatchFilter.all().withFileNames("b.txt")).handleBundledEvents(batch);
+            assertEquals(1, tasks.get());
+        }
+
+        assertEquals(1, seen.get().size());
+        assertEquals(Path.of("b.txt"), seen.get().get(0).getRelativePath());
+    }
+}
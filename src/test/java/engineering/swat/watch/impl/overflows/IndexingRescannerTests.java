@@ -27,8 +27,11 @@
 package engineering.swat.watch.impl.overflows;
 
 import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -42,6 +45,7 @@ import engineering.swat.watch.Approximation;
 import engineering.swat.watch.TestDirectory;
 import engineering.swat.watch.TestHelper;
 import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchFilter;
 import engineering.swat.watch.WatchScope;
 import engineering.swat.watch.Watch;
 import engineering.swat.watch.impl.EventHandlingWatch;
@@ -95,11 +99,49 @@ class IndexingRescannerTests {
             // those children (even though the initial index contains entries
             // for all descendants).
             var overflow = new WatchEvent(WatchEvent.Kind.OVERFLOW, path);
-            rescanner.accept(watch, overflow);
+            rescanner.accept(watch, List.of(overflow));
             Thread.sleep(TestHelper.SHORT_WAIT.toMillis());
 
             await("No events for non-children descendants should have been issued")
                 .until(eventsOnlyForChildren::get);
         }
     }
+
+    @Test
+    void excludedSubtreesAreNotRescanned() throws IOException, InterruptedException {
+        var path = testDir.getTestDirectory();
+        var ignored = Files.createDirectories(path.resolve("ignored").resolve("nested"));
+        Files.writeString(ignored.resolve("file.txt"), "Hello world");
+
+        var seenIncluded = new AtomicBoolean(false);
+        var seenExcluded = new AtomicBoolean(false);
+        var watchConfig = Watch.build(path, WatchScope.PATH_AND_ALL_DESCENDANTS)
+            .onOverflow(Approximation.NONE) // Disable the auto-handler here; we'll have explicit ones below
+            .on(e -> {
+                if (e.getRelativePath().startsWith("ignored")) {
+                    seenExcluded.set(true);
+                } else if (e.getKind() != WatchEvent.Kind.OVERFLOW) {
+                    seenIncluded.set(true);
+                }
+            });
+
+        try (var watch = (EventHandlingWatch) watchConfig.start()) {
+            var filter = WatchFilter.all().withExcludes("ignored");
+            var overflow = new WatchEvent(WatchEvent.Kind.OVERFLOW, path);
+
+            // The memoryless rescanner issues events for all (non-excluded) files
+            new MemorylessRescanner(ForkJoinPool.commonPool(), path, filter)
+                .accept(watch, List.of(overflow));
+            await("Events for included files should have been issued")
+                .untilTrue(seenIncluded);
+
+            // The indexing rescanner doesn't index excluded files, but it
+            // shouldn't issue events for them either
+            new IndexingRescanner(ForkJoinPool.commonPool(), path, WatchScope.PATH_AND_ALL_DESCENDANTS, filter)
+                .accept(watch, List.of(overflow));
+            Thread.sleep(TestHelper.SHORT_WAIT.toMillis());
+
+            assertFalse(seenExcluded.get(), "No events for excluded files should have been issued");
+        }
+    }
 }
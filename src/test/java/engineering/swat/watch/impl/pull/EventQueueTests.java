@@ -0,0 +1,186 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.pull;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchEvent.Kind;
+import engineering.swat.watch.WatchScope;
+import engineering.swat.watch.impl.EventHandlingWatch;
+
+class EventQueueTests {
+    private static final Path ROOT = Path.of("foo").toAbsolutePath();
+
+    private static class RootWatch implements EventHandlingWatch {
+        private final EventQueue queue;
+        final List<WatchEvent> issued = new ArrayList<>();
+
+        RootWatch(EventQueue queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void handleEvent(WatchEvent event) {
+            // Issued events are passed to the handler, as the real watch would
+            issued.add(event);
+            queue.accept(this, List.of(event));
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Nothing to close
+        }
+
+        @Override
+        public WatchScope getScope() {
+            return WatchScope.PATH_AND_CHILDREN;
+        }
+
+        @Override
+        public Path getPath() {
+            return ROOT;
+        }
+    }
+
+    private static WatchEvent event(Kind kind, String fileName) {
+        return new WatchEvent(kind, ROOT, Path.of(fileName));
+    }
+
+    @Test
+    void eventsArePulledInOrder() throws InterruptedException {
+        var queue = new EventQueue(16);
+        var root = new RootWatch(queue);
+        queue.bind(root, Runnable::run);
+
+        queue.accept(root, List.of(event(Kind.CREATED, "a"), event(Kind.MODIFIED, "a")));
+        queue.accept(root, List.of(event(Kind.DELETED, "b")));
+
+        var first = queue.poll(0, TimeUnit.MILLISECONDS);
+        assertNotNull(first);
+        assertEquals(Kind.CREATED, first.getKind());
+        var rest = new ArrayList<WatchEvent>();
+        assertEquals(2, queue.drainTo(rest, 10));
+        assertEquals(Kind.MODIFIED, rest.get(0).getKind());
+        assertEquals(Kind.DELETED, rest.get(1).getKind());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void waitingConsumersAreWokenUp() throws Exception {
+        var queue = new EventQueue(16);
+        var root = new RootWatch(queue);
+        queue.bind(root, Runnable::run);
+
+        var taken = CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        queue.accept(root, List.of(event(Kind.CREATED, "a")));
+        assertEquals(Path.of("a"), taken.get(5, TimeUnit.SECONDS).getRelativePath());
+    }
+
+    private static CompletableFuture<WatchEvent> takeAsync(EventQueue queue) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }, r -> new Thread(r).start());
+    }
+
+    @Test
+    void concurrentConsumersAreAllWokenUp() throws Exception {
+        var queue = new EventQueue(16);
+        var root = new RootWatch(queue);
+        queue.bind(root, Runnable::run);
+
+        var first = takeAsync(queue);
+        var second = takeAsync(queue);
+        Thread.sleep(50);
+        queue.accept(root, List.of(event(Kind.CREATED, "a")));
+        queue.accept(root, List.of(event(Kind.CREATED, "b")));
+        var taken = List.of(first.get(5, TimeUnit.SECONDS).getRelativePath(), second.get(5, TimeUnit.SECONDS).getRelativePath());
+        assertTrue(taken.containsAll(List.of(Path.of("a"), Path.of("b"))));
+
+        var third = takeAsync(queue);
+        var fourth = takeAsync(queue);
+        Thread.sleep(50);
+        queue.close();
+        for (var consumer : List.of(third, fourth)) {
+            var e = assertThrows(ExecutionException.class, () -> consumer.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof ClosedWatchServiceException);
+        }
+    }
+
+    @Test
+    void fullQueuesCollapseIntoOverflows() throws InterruptedException {
+        var queue = new EventQueue(4);
+        var root = new RootWatch(queue);
+        queue.bind(root, Runnable::run);
+
+        for (int i = 0; i < 100; i++) {
+            queue.accept(root, List.of(event(Kind.MODIFIED, "file" + i)));
+        }
+        var events = new ArrayList<WatchEvent>();
+        queue.drainTo(events, 1000);
+        assertEquals(1, events.size());
+        assertEquals(Kind.OVERFLOW, events.get(0).getKind());
+        assertEquals(1, root.issued.size());
+    }
+
+    @Test
+    void closedQueuesCanBeDrained() throws InterruptedException {
+        var queue = new EventQueue(16);
+        var root = new RootWatch(queue);
+        queue.accept(root, List.of(event(Kind.CREATED, "a")));
+        queue.close();
+
+        assertNotNull(queue.poll(0, TimeUnit.MILLISECONDS));
+        assertThrows(ClosedWatchServiceException.class, queue::take);
+    }
+}
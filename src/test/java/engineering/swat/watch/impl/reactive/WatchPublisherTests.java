@@ -0,0 +1,222 @@
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2023, Swat.engineering
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.watch.impl.reactive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.Test;
+
+import engineering.swat.watch.WatchEvent;
+import engineering.swat.watch.WatchEvent.Kind;
+import engineering.swat.watch.WatchScope;
+import engineering.swat.watch.impl.EventHandlingWatch;
+
+class WatchPublisherTests {
+    private static final Path ROOT = Path.of("foo").toAbsolutePath();
+
+    private final List<WatchEvent> issued = new ArrayList<>();
+    private final EventHandlingWatch watch = new EventHandlingWatch() {
+        @Override
+        public void handleEvent(WatchEvent event) {
+            issued.add(event);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Nothing to close
+        }
+
+        @Override
+        public WatchScope getScope() {
+            return WatchScope.PATH_AND_CHILDREN;
+        }
+
+        @Override
+        public Path getPath() {
+            return ROOT;
+        }
+    };
+
+    private static WatchEvent event(Kind kind, String fileName) {
+        return new WatchEvent(kind, ROOT, Path.of(fileName));
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<WatchEvent> {
+        final List<WatchEvent> received = new ArrayList<>();
+        final AtomicReference<@Nullable Throwable> error = new AtomicReference<>();
+        int completions = 0;
+        Flow.@Nullable Subscription subscription = null;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(WatchEvent item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completions++;
+        }
+
+        Flow.Subscription subscription() {
+            var s = subscription;
+            assertNotNull(s);
+            return s;
+        }
+    }
+
+    @Test
+    void eventsAreSignalledOnDemand() {
+        var publisher = new WatchPublisher(16);
+        publisher.bind(watch, Runnable::run);
+        var subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        publisher.accept(watch, List.of(event(Kind.CREATED, "a"), event(Kind.MODIFIED, "b")));
+        assertTrue(subscriber.received.isEmpty());
+
+        subscriber.subscription().request(1);
+        assertEquals(1, subscriber.received.size());
+        assertEquals(Path.of("a"), subscriber.received.get(0).getRelativePath());
+
+        subscriber.subscription().request(5);
+        publisher.accept(watch, List.of(event(Kind.DELETED, "c")));
+        assertEquals(3, subscriber.received.size());
+        assertTrue(issued.isEmpty());
+    }
+
+    @Test
+    void slowSubscribersGetOverflowsInsteadOfUnboundedBuffers() {
+        var publisher = new WatchPublisher(4);
+        // Overflows issued to the watch are fed back, as the handler chain would
+        var root = new EventHandlingWatch() {
+            @Override
+            public void handleEvent(WatchEvent event) {
+                issued.add(event);
+                publisher.accept(this, List.of(event));
+            }
+
+            @Override
+            public void close() throws IOException {
+                // Nothing to close
+            }
+
+            @Override
+            public WatchScope getScope() {
+                return WatchScope.PATH_AND_CHILDREN;
+            }
+
+            @Override
+            public Path getPath() {
+                return ROOT;
+            }
+        };
+        publisher.bind(root, Runnable::run);
+        var subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        for (int i = 0; i < 100; i++) {
+            publisher.accept(watch, List.of(event(Kind.MODIFIED, "file" + i)));
+        }
+        assertTrue(issued.isEmpty(), "Overflows are issued only when there is demand again");
+
+        subscriber.subscription().request(10);
+        assertEquals(1, issued.size());
+        assertEquals(1, subscriber.received.size());
+        assertEquals(Kind.OVERFLOW, subscriber.received.get(0).getKind());
+    }
+
+    @Test
+    void onlyOneSubscriberAtATime() {
+        var publisher = new WatchPublisher(16);
+        var first = new RecordingSubscriber();
+        var second = new RecordingSubscriber();
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        assertTrue(second.error.get() instanceof IllegalStateException);
+
+        first.subscription().cancel();
+        var third = new RecordingSubscriber();
+        publisher.subscribe(third);
+        third.subscription().request(1);
+        publisher.accept(watch, List.of(event(Kind.CREATED, "a")));
+        assertEquals(1, third.received.size());
+        assertTrue(first.received.isEmpty());
+    }
+
+    @Test
+    void nonPositiveRequestsAreErrors() {
+        var publisher = new WatchPublisher(16);
+        var subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription().request(0);
+        assertTrue(subscriber.error.get() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    void subscribersAreCompletedWhenTheWatchIsClosed() {
+        var publisher = new WatchPublisher(16);
+        publisher.bind(watch, Runnable::run);
+        var subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        publisher.accept(watch, List.of(event(Kind.CREATED, "a")));
+
+        publisher.close();
+        assertEquals(0, subscriber.completions, "Buffered events are signalled first");
+        subscriber.subscription().request(1);
+        assertEquals(1, subscriber.received.size());
+        assertEquals(1, subscriber.completions);
+
+        publisher.accept(watch, List.of(event(Kind.CREATED, "b")));
+        subscriber.subscription().request(1);
+        assertEquals(1, subscriber.received.size());
+        assertEquals(1, subscriber.completions);
+
+        var late = new RecordingSubscriber();
+        publisher.subscribe(late);
+        assertEquals(1, late.completions);
+    }
+}